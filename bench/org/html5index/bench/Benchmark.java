@@ -0,0 +1,148 @@
+package org.html5index.bench;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Minimal benchmark harness. A benchmark is run repeatedly on the current thread; each
+ * round repeats the workload until it takes at least ROUND_NANOS, and the median time
+ * and allocation per operation over the measured rounds is reported. Allocation is
+ * measured with the per-thread allocation counter of the HotSpot ThreadMXBean and
+ * reported as -1 where that is not available.
+ * <p>
+ * Results can be saved as a baseline and later runs compared against it.
+ */
+public class Benchmark {
+  static final long ROUND_NANOS = 200L * 1000 * 1000;
+
+  /** A piece of work. run() returns the number of operations performed. */
+  public interface Task {
+    long run();
+  }
+
+  private final int warmupRounds;
+  private final int rounds;
+  private final Map<String, Double> results = new LinkedHashMap<String, Double>();
+
+  public Benchmark(int warmupRounds, int rounds) {
+    this.warmupRounds = warmupRounds;
+    this.rounds = rounds;
+  }
+
+  public Map<String, Double> getResults() {
+    return results;
+  }
+
+  /**
+   * Runs the task and records ns/op and bytes/op under name.nsPer[unit] and
+   * name.bytesPer[unit].
+   */
+  public void measure(String name, String unit, Task task) {
+    int repeat = 1;
+    for (int i = 0; i < warmupRounds; i++) {
+      long start = System.nanoTime();
+      for (int j = 0; j < repeat; j++) {
+        task.run();
+      }
+      long time = System.nanoTime() - start;
+      if (time < ROUND_NANOS) {
+        repeat = (int) Math.min(1000000, Math.max(repeat * 2, repeat * ROUND_NANOS / Math.max(1, time)));
+      }
+    }
+
+    double[] nanos = new double[rounds];
+    double[] bytes = new double[rounds];
+    for (int i = 0; i < rounds; i++) {
+      long ops = 0;
+      long startBytes = allocatedBytes();
+      long start = System.nanoTime();
+      for (int j = 0; j < repeat; j++) {
+        ops += task.run();
+      }
+      long time = System.nanoTime() - start;
+      long allocated = allocatedBytes() - startBytes;
+      nanos[i] = (double) time / ops;
+      bytes[i] = startBytes < 0 ? -1 : (double) allocated / ops;
+    }
+    double nsPerOp = median(nanos);
+    double bytesPerOp = median(bytes);
+    results.put(name + ".nsPer" + unit, nsPerOp);
+    results.put(name + ".bytesPer" + unit, bytesPerOp);
+    System.out.println(String.format("%-10s %12.1f ns/%s %12.0f %s/s %12.1f bytes/%s",
+        name, nsPerOp, unit, 1e9 / nsPerOp, unit, bytesPerOp, unit));
+  }
+
+  static double median(double[] values) {
+    double[] sorted = values.clone();
+    Arrays.sort(sorted);
+    int n = sorted.length;
+    return n % 2 == 1 ? sorted[n / 2] : (sorted[n / 2 - 1] + sorted[n / 2]) / 2;
+  }
+
+  static long allocatedBytes() {
+    java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if (bean instanceof com.sun.management.ThreadMXBean) {
+      com.sun.management.ThreadMXBean hotspotBean = (com.sun.management.ThreadMXBean) bean;
+      if (hotspotBean.isThreadAllocatedMemorySupported() && hotspotBean.isThreadAllocatedMemoryEnabled()) {
+        return hotspotBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+      }
+    }
+    return -1;
+  }
+
+  public void save(File file) throws IOException {
+    Properties properties = new Properties();
+    for (Map.Entry<String, Double> entry: results.entrySet()) {
+      properties.setProperty(entry.getKey(), String.valueOf(entry.getValue()));
+    }
+    FileOutputStream os = new FileOutputStream(file);
+    try {
+      properties.store(os, "html5index benchmark baseline");
+    } finally {
+      os.close();
+    }
+  }
+
+  /**
+   * Compares the results against the given baseline. Returns the names of the results
+   * that are worse than the baseline by more than the given fraction.
+   */
+  public List<String> compare(File file, double threshold) throws IOException {
+    Properties baseline = new Properties();
+    FileInputStream is = new FileInputStream(file);
+    try {
+      baseline.load(is);
+    } finally {
+      is.close();
+    }
+    List<String> regressions = new ArrayList<String>();
+    for (Map.Entry<String, Double> entry: results.entrySet()) {
+      String value = baseline.getProperty(entry.getKey());
+      if (value == null) {
+        continue;
+      }
+      double base = Double.parseDouble(value);
+      double current = entry.getValue();
+      if (base <= 0 || current < 0) {
+        continue;
+      }
+      double change = (current - base) / base;
+      boolean regression = change > threshold;
+      if (regression) {
+        regressions.add(entry.getKey());
+      }
+      System.out.println(String.format("%-24s %12.1f -> %12.1f %+7.1f%%%s",
+          entry.getKey(), base, current, change * 100, regression ? "  REGRESSION" : ""));
+    }
+    return regressions;
+  }
+}
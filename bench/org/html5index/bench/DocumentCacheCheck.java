@@ -0,0 +1,264 @@
+package org.html5index.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.html5index.docscan.CacheStore;
+import org.html5index.docscan.DirectoryCacheStore;
+import org.html5index.docscan.DocumentCache;
+import org.html5index.docscan.PackCacheStore;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Checks the revalidation logic of DocumentCache against a local stand-in for a spec
+ * server, for both cache stores: conditional requests with ETag and Last-Modified, 304
+ * responses, refetching changed and corrupt entries and the fallback to the cached copy
+ * when the server can't be reached or stalls, which must not return the document of
+ * another url stored under a colliding file name. Runs offline.
+ * <pre>
+ * DocumentCacheCheck [-dir directory]
+ * </pre>
+ * The exit code is 1 if any check fails.
+ */
+public class DocumentCacheCheck {
+  static final long LONG_TTL = 60L * 60 * 1000;
+  /** The timeout used against the stalled server. */
+  static final int STALL_TIMEOUT = 500;
+  /** How long a request to the stalled server may take at most before the check fails. */
+  static final long STALL_LIMIT = 5000;
+
+  /** Serves a single document with the given validators and counts the responses. */
+  static class StandIn implements HttpHandler {
+    volatile String content = "";
+    volatile String etag;
+    volatile String lastModified;
+    volatile String ifNoneMatch;
+    volatile String ifModifiedSince;
+    /** If set, requests are not answered until release is counted down. */
+    volatile boolean stalled;
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicInteger full = new AtomicInteger();
+    final AtomicInteger notModified = new AtomicInteger();
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+      try {
+        if (stalled) {
+          try {
+            release.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+          return;
+        }
+        ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+        ifModifiedSince = exchange.getRequestHeaders().getFirst("If-Modified-Since");
+        if (etag != null) {
+          exchange.getResponseHeaders().set("ETag", etag);
+        }
+        if (lastModified != null) {
+          exchange.getResponseHeaders().set("Last-Modified", lastModified);
+        }
+        boolean unchanged = etag != null ? etag.equals(ifNoneMatch) :
+            lastModified != null && lastModified.equals(ifModifiedSince);
+        if (unchanged) {
+          notModified.incrementAndGet();
+          exchange.sendResponseHeaders(304, -1);
+          return;
+        }
+        full.incrementAndGet();
+        byte[] bytes = content.getBytes("utf-8");
+        exchange.getResponseHeaders().set("Content-Type", "text/html; charset=utf-8");
+        exchange.sendResponseHeaders(200, bytes.length);
+        OutputStream os = exchange.getResponseBody();
+        os.write(bytes);
+        os.close();
+      } finally {
+        exchange.close();
+      }
+    }
+
+    void reset() {
+      ifNoneMatch = null;
+      ifModifiedSince = null;
+      full.set(0);
+      notModified.set(0);
+    }
+
+    int requests() {
+      return full.get() + notModified.get();
+    }
+  }
+
+  private int failures;
+
+  public static void main(String[] args) throws IOException {
+    File dir = new File(System.getProperty("java.io.tmpdir"), "html5index-cache-check");
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("-dir") && i + 1 < args.length) {
+        dir = new File(args[++i]);
+      } else {
+        System.err.println("Unrecognized argument: " + args[i]);
+        System.exit(-1);
+      }
+    }
+    DocumentCacheCheck check = new DocumentCacheCheck();
+
+    File packFile = new File(dir, "check.pack");
+    packFile.delete();
+    PackCacheStore pack = new PackCacheStore(packFile);
+    try {
+      check.run("PackCacheStore", pack);
+    } finally {
+      pack.close();
+    }
+
+    File filesDir = new File(dir, "files");
+    File[] files = filesDir.listFiles();
+    if (files != null) {
+      for (File file: files) {
+        file.delete();
+      }
+    }
+    filesDir.mkdirs();
+    check.run("DirectoryCacheStore", new DirectoryCacheStore(filesDir));
+
+    if (check.failures > 0) {
+      System.out.println(check.failures + " checks failed.");
+      System.exit(1);
+    }
+    System.out.println("All checks passed.");
+  }
+
+  void check(String description, boolean ok) {
+    System.out.println((ok ? "  ok    " : "  FAIL  ") + description);
+    if (!ok) {
+      failures++;
+    }
+  }
+
+  static String load(CacheStore store, long ttl, String url) throws IOException {
+    return new DocumentCache(store, ttl).load(url);
+  }
+
+  void run(String name, CacheStore store) throws IOException {
+    System.out.println(name + ":");
+    InetAddress loopback = InetAddress.getLoopbackAddress();
+    HttpServer server = HttpServer.create(new InetSocketAddress(loopback, 0), 0);
+    StandIn withEtag = new StandIn();
+    StandIn withDate = new StandIn();
+    StandIn docs = new StandIn();
+    StandIn stalling = new StandIn();
+    server.createContext("/etag.html", withEtag);
+    server.createContext("/date.html", withDate);
+    server.createContext("/docs/", docs);
+    server.createContext("/stall/", stalling);
+    // Stalled requests must not hold up the others.
+    ExecutorService executor = Executors.newCachedThreadPool();
+    server.setExecutor(executor);
+    server.start();
+    String base = "http://" + loopback.getHostAddress() + ":" + server.getAddress().getPort();
+    String etagUrl = base + "/etag.html";
+    String dateUrl = base + "/date.html";
+    // Both map to the same file name in a DirectoryCacheStore.
+    String colonUrl = base + "/docs/a:b.html";
+    String underscoreUrl = base + "/docs/a_b.html";
+    String stallUrl = base + "/stall/cached.html";
+    try {
+      withEtag.content = "<html>first\nversion</html>";
+      withEtag.etag = "\"v1\"";
+      withEtag.lastModified = "Mon, 01 Jan 2024 00:00:00 GMT";
+      check("first load fetches the document",
+          load(store, LONG_TTL, etagUrl).equals(withEtag.content) && withEtag.full.get() == 1);
+
+      withEtag.reset();
+      check("fresh entry is served without a request",
+          load(store, LONG_TTL, etagUrl).equals(withEtag.content) && withEtag.requests() == 0);
+
+      withEtag.reset();
+      check("stale entry is revalidated with If-None-Match and answered with 304",
+          load(store, 0, etagUrl).equals(withEtag.content) && withEtag.notModified.get() == 1 &&
+          withEtag.full.get() == 0 && "\"v1\"".equals(withEtag.ifNoneMatch));
+      check("revalidation also sends If-Modified-Since",
+          withEtag.lastModified.equals(withEtag.ifModifiedSince));
+
+      withEtag.reset();
+      check("304 makes the entry fresh again",
+          load(store, LONG_TTL, etagUrl).equals(withEtag.content) && withEtag.requests() == 0);
+
+      withEtag.content = "<html>second version</html>";
+      withEtag.etag = "\"v2\"";
+      withEtag.reset();
+      check("changed document is refetched",
+          load(store, 0, etagUrl).equals(withEtag.content) && withEtag.full.get() == 1);
+
+      withDate.content = "<html>dated</html>";
+      withDate.lastModified = "Tue, 02 Jan 2024 00:00:00 GMT";
+      load(store, 0, dateUrl);
+      withDate.reset();
+      check("without ETag, the entry is revalidated with If-Modified-Since only",
+          load(store, 0, dateUrl).equals(withDate.content) && withDate.notModified.get() == 1 &&
+          withDate.ifNoneMatch == null && withDate.lastModified.equals(withDate.ifModifiedSince));
+
+      Properties meta = store.getMetadata(etagUrl);
+      store.put(etagUrl, meta, "<html>damaged</html>".getBytes("utf-8"));
+      withEtag.reset();
+      check("entry not matching its hash is refetched",
+          load(store, LONG_TTL, etagUrl).equals(withEtag.content) && withEtag.full.get() == 1);
+
+      docs.content = "<html>a:b</html>";
+      load(store, LONG_TTL, colonUrl);
+
+      stalling.content = "<html>stalled</html>";
+      load(store, LONG_TTL, stallUrl);
+      stalling.stalled = true;
+      long start = System.currentTimeMillis();
+      String content = new DocumentCache(store, 0, STALL_TIMEOUT).load(stallUrl);
+      check("stalled server, a stale entry falls back to the cached copy within the timeout",
+          content.equals(stalling.content) && System.currentTimeMillis() - start < STALL_LIMIT);
+      start = System.currentTimeMillis();
+      boolean failed = false;
+      try {
+        new DocumentCache(store, 0, STALL_TIMEOUT).load(base + "/stall/uncached.html");
+      } catch (IOException e) {
+        failed = true;
+      }
+      check("stalled server, an uncached document fails within the timeout",
+          failed && System.currentTimeMillis() - start < STALL_LIMIT);
+    } finally {
+      stalling.release.countDown();
+      server.stop(0);
+      executor.shutdown();
+    }
+
+    check("offline, a stale entry falls back to the cached copy",
+        load(store, 0, etagUrl).equals(withEtag.content));
+    boolean failed = false;
+    try {
+      load(store, 0, base + "/missing.html");
+    } catch (IOException e) {
+      failed = true;
+    }
+    check("offline, an uncached document fails", failed);
+
+    failed = false;
+    try {
+      load(store, 0, underscoreUrl);
+    } catch (IOException e) {
+      failed = true;
+    }
+    check("offline, a document stored under a colliding name is not returned for another url",
+        failed);
+  }
+}
@@ -0,0 +1,205 @@
+package org.html5index.bench;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.html5index.idl.IdlParser;
+import org.html5index.model.DocumentationProvider.Category;
+import org.html5index.model.Library;
+import org.html5index.model.Model;
+import org.html5index.model.StaticDocumentationProvider;
+import org.html5index.util.SymbolTable;
+import org.html5index.util.Tokenizer;
+
+/**
+ * Tokenizer and parser throughput on the bundled IDL files (res/idl) and the Blink IDL jar.
+ * Runs offline.
+ * <pre>
+ * IdlBenchmark [-res dir] [-jar file] [-warmup n] [-rounds n]
+ *     [-save baseline.properties] [-compare baseline.properties] [-threshold 0.1]
+ * </pre>
+ * With -compare, the exit code is 1 if any result is worse than the baseline by more
+ * than the threshold.
+ */
+public class IdlBenchmark {
+
+  static class Source {
+    final String library;
+    final String name;
+    final String idl;
+    final char[] chars;
+    Source(String library, String name, String idl) {
+      this.library = library;
+      this.name = name;
+      this.idl = idl;
+      this.chars = idl.toCharArray();
+    }
+  }
+
+  final List<Source> corpus = new ArrayList<Source>();
+  final SymbolTable symbols = new SymbolTable();
+  int tokenCount;
+  int parseErrors;
+
+  public static void main(String[] args) throws IOException {
+    File resDir = new File("res/idl");
+    File jarFile = new File("res/blink-idls/blink-idls.jar");
+    int warmup = 5;
+    int rounds = 10;
+    File save = null;
+    File compare = null;
+    double threshold = 0.1;
+    for (int i = 0; i < args.length; i++) {
+      String arg = args[i];
+      if (arg.equals("-res")) {
+        resDir = new File(args[++i]);
+      } else if (arg.equals("-jar")) {
+        jarFile = new File(args[++i]);
+      } else if (arg.equals("-warmup")) {
+        warmup = Integer.parseInt(args[++i]);
+      } else if (arg.equals("-rounds")) {
+        rounds = Integer.parseInt(args[++i]);
+      } else if (arg.equals("-save")) {
+        save = new File(args[++i]);
+      } else if (arg.equals("-compare")) {
+        compare = new File(args[++i]);
+      } else if (arg.equals("-threshold")) {
+        threshold = Double.parseDouble(args[++i]);
+      } else {
+        System.err.println("Unrecognized argument: " + arg);
+        System.exit(-1);
+      }
+    }
+
+    IdlBenchmark benchmark = new IdlBenchmark();
+    benchmark.readCorpus(resDir, jarFile);
+    Benchmark harness = new Benchmark(warmup, rounds);
+    benchmark.run(harness);
+
+    if (save != null) {
+      harness.save(save);
+      System.out.println("Baseline saved to " + save);
+    }
+    if (compare != null) {
+      List<String> regressions = harness.compare(compare, threshold);
+      if (!regressions.isEmpty()) {
+        System.out.println("Regressions: " + regressions);
+        System.exit(1);
+      }
+    }
+  }
+
+  void readCorpus(File resDir, File jarFile) throws IOException {
+    File[] files = resDir.listFiles();
+    if (files != null) {
+      java.util.Arrays.sort(files);
+      for (File file: files) {
+        if (file.getName().endsWith(".idl")) {
+          InputStream is = new FileInputStream(file);
+          try {
+            corpus.add(new Source(file.getName(), file.getName(), readText(is)));
+          } finally {
+            is.close();
+          }
+        }
+      }
+    }
+    ZipFile jar = new ZipFile(jarFile);
+    try {
+      Enumeration<? extends ZipEntry> entries = jar.entries();
+      while (entries.hasMoreElements()) {
+        ZipEntry entry = entries.nextElement();
+        if (entry.getName().endsWith(".idl")) {
+          InputStream is = jar.getInputStream(entry);
+          try {
+            corpus.add(new Source("blink", entry.getName(), readText(is)));
+          } finally {
+            is.close();
+          }
+        }
+      }
+    } finally {
+      jar.close();
+    }
+
+    int chars = 0;
+    for (Source source: corpus) {
+      chars += source.idl.length();
+    }
+    tokenCount = (int) tokenize();
+    parse();
+    System.out.println("Corpus: " + corpus.size() + " files, " + chars + " chars, " +
+        tokenCount + " tokens, " + parseErrors + " files with parse errors");
+  }
+
+  static String readText(InputStream is) throws IOException {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    byte[] buf = new byte[8192];
+    while (true) {
+      int count = is.read(buf);
+      if (count <= 0) {
+        break;
+      }
+      baos.write(buf, 0, count);
+    }
+    return new String(baos.toByteArray(), "UTF-8");
+  }
+
+  void run(Benchmark harness) {
+    harness.measure("tokenize", "Token", new Benchmark.Task() {
+      @Override
+      public long run() {
+        return tokenize();
+      }
+    });
+    harness.measure("parse", "File", new Benchmark.Task() {
+      @Override
+      public long run() {
+        return parse();
+      }
+    });
+  }
+
+  long tokenize() {
+    long count = 0;
+    for (Source source: corpus) {
+      Tokenizer tokenizer = new Tokenizer(source.chars, 0, source.chars.length, symbols);
+      while (tokenizer.nextToken() != Tokenizer.TT_EOF) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Parses the corpus into a new model, with one library per source library, like
+   * IdlCompletenessChecker does for the Blink IDLs.
+   */
+  long parse() {
+    Model model = new Model();
+    Library lib = null;
+    int errors = 0;
+    for (Source source: corpus) {
+      if (lib == null || !lib.getName().equals(source.library)) {
+        lib = new Library(source.library, false);
+        lib.setDocumentationProvider(new StaticDocumentationProvider(source.library, Category.MULTIMEDIA));
+        model.addLibrary(lib);
+      }
+      try {
+        new IdlParser(lib, source.idl).parse();
+      } catch (RuntimeException e) {
+        errors++;
+      }
+    }
+    parseErrors = errors;
+    return corpus.size();
+  }
+}
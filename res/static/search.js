@@ -0,0 +1,183 @@
+// Prefix search over search.idx, the binary index written by SearchIndexWriter.
+(function() {
+  var MAGIC = 0x48355358;
+  var MAX_RESULTS = 200;
+  var KIND_LIBRARY = 0;
+  var KIND_TYPE = 1;
+  var KIND_OPERATION = 2;
+  var KIND_PROPERTY = 3;
+  var HAS_PARAMETERS = 4;
+
+  var index = null;
+
+  function Reader(view, pos) {
+    this.view = view;
+    this.pos = pos;
+  }
+
+  Reader.prototype.varint = function() {
+    var result = 0;
+    var shift = 0;
+    var b;
+    do {
+      b = this.view.getUint8(this.pos++);
+      result += (b & 0x7f) * Math.pow(2, shift);
+      shift += 7;
+    } while (b & 0x80);
+    return result;
+  };
+
+  Reader.prototype.bytes = function(length) {
+    var result = new Uint8Array(this.view.buffer, this.view.byteOffset + this.pos, length);
+    this.pos += length;
+    return result;
+  };
+
+  function decodeUtf8(bytes) {
+    if (window.TextDecoder) {
+      return new TextDecoder('utf-8').decode(bytes);
+    }
+    var s = '';
+    for (var i = 0; i < bytes.length; i++) {
+      s += '%' + (bytes[i] < 16 ? '0' : '') + bytes[i].toString(16);
+    }
+    return decodeURIComponent(s);
+  }
+
+  function Index(buffer) {
+    var view = new DataView(buffer);
+    if (view.getInt32(0) != MAGIC) {
+      throw new Error('Not a search index');
+    }
+    this.view = view;
+    this.entryCount = view.getInt32(8);
+    this.blockSize = view.getInt32(12);
+    var stringCount = view.getInt32(16);
+    var reader = new Reader(view, 20);
+    this.strings = [];
+    for (var i = 0; i < stringCount; i++) {
+      this.strings.push(decodeUtf8(reader.bytes(reader.varint())));
+    }
+    var blockCount = Math.ceil(this.entryCount / this.blockSize);
+    this.blockOffsets = [];
+    for (var i = 0; i < blockCount; i++) {
+      this.blockOffsets.push(view.getInt32(reader.pos));
+      reader.pos += 4;
+    }
+    this.dataStart = reader.pos;
+    // The first name of each block is stored in full.
+    this.firstKeys = [];
+    for (var i = 0; i < blockCount; i++) {
+      var blockReader = new Reader(view, this.dataStart + this.blockOffsets[i]);
+      blockReader.varint();
+      this.firstKeys.push(decodeUtf8(blockReader.bytes(blockReader.varint())).toLowerCase());
+    }
+  }
+
+  /** Calls callback with each entry starting at the given block until it returns false. */
+  Index.prototype.scan = function(block, callback) {
+    var reader = new Reader(this.view, this.dataStart + this.blockOffsets[block]);
+    var name = new Uint8Array(0);
+    for (var i = block * this.blockSize; i < this.entryCount; i++) {
+      var shared = reader.varint();
+      var suffix = reader.bytes(reader.varint());
+      var bytes = new Uint8Array(shared + suffix.length);
+      bytes.set(name.subarray(0, shared));
+      bytes.set(suffix, shared);
+      name = bytes;
+      var entry = {name: decodeUtf8(bytes), kind: this.view.getUint8(reader.pos++)};
+      entry.library = this.strings[reader.varint()];
+      if (entry.kind >= KIND_OPERATION) {
+        entry.owner = this.strings[reader.varint()];
+      }
+      if (callback(entry) === false) {
+        return;
+      }
+    }
+  };
+
+  /** Returns the entries whose lower case name starts with the lower case prefix. */
+  Index.prototype.find = function(prefix, max) {
+    prefix = prefix.toLowerCase();
+    // Last block whose first key is smaller than the prefix; matches can't start earlier.
+    var low = 0;
+    var high = this.firstKeys.length - 1;
+    var block = 0;
+    while (low <= high) {
+      var mid = (low + high) >> 1;
+      if (this.firstKeys[mid] < prefix) {
+        block = mid;
+        low = mid + 1;
+      } else {
+        high = mid - 1;
+      }
+    }
+    var result = [];
+    if (this.entryCount == 0) {
+      return result;
+    }
+    this.scan(block, function(entry) {
+      var key = entry.name.toLowerCase();
+      if (key.substring(0, prefix.length) == prefix) {
+        result.push(entry);
+        return result.length < max;
+      }
+      return key < prefix;
+    });
+    return result;
+  };
+
+  function escapeHtml(s) {
+    return s.replace(/&/g, '&amp;').replace(/</g, '&lt;').replace(/>/g, '&gt;')
+        .replace(/'/g, '&apos;').replace(/"/g, '&quot;');
+  }
+
+  function link(href, text) {
+    return "<a href='" + escapeHtml(href) + "'>" + escapeHtml(text) + "</a>";
+  }
+
+  function render(entry) {
+    if (entry.kind == KIND_LIBRARY) {
+      return link(entry.name + ' - Overview.html', entry.name);
+    }
+    if (entry.kind == KIND_TYPE) {
+      return link(entry.library + ' - ' + entry.name + '.html', entry.name) +
+          escapeHtml(' (' + entry.library + ')');
+    }
+    var text = entry.name;
+    if (entry.kind != KIND_PROPERTY) {
+      text += (entry.kind & HAS_PARAMETERS) ? '(...)' : '()';
+    }
+    return link(entry.library + ' - ' + entry.owner + '.html#' + entry.name, text) +
+        escapeHtml(' (' + entry.owner + ')');
+  }
+
+  function update() {
+    var query = document.getElementById('query').value.replace(/^\s+|\s+$/g, '');
+    var results = document.getElementById('results');
+    if (index == null || query == '') {
+      results.innerHTML = '';
+      return;
+    }
+    var entries = index.find(query, MAX_RESULTS + 1);
+    var html = [];
+    for (var i = 0; i < entries.length && i < MAX_RESULTS; i++) {
+      html.push('<li>' + render(entries[i]) + '</li>');
+    }
+    if (entries.length > MAX_RESULTS) {
+      html.push('<li>...</li>');
+    }
+    results.innerHTML = html.join('');
+  }
+
+  var request = new XMLHttpRequest();
+  request.open('GET', 'search.idx');
+  request.responseType = 'arraybuffer';
+  request.onload = function() {
+    index = new Index(request.response);
+    update();
+  };
+  request.send();
+
+  document.getElementById('query').oninput = update;
+})();
@@ -1,7 +1,11 @@
 package org.html5index.docscan;
 
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import org.html5index.model.Artifact;
 import org.html5index.model.DocumentationProvider;
@@ -27,6 +31,39 @@ public abstract class AbstractSpecScan implements DocumentationProvider {
   public Map<String,String> getTutorials() {
     return tutorials;
   }
+
+  /**
+   * Starts loading the documents of this spec on the given executor. The results are
+   * picked up in source order by readDocumentation, so prefetching does not change the
+   * resulting model.
+   */
+  void prefetch(ExecutorService executor) {
+  }
+
+  /**
+   * Called when readDocumentation is done. Scans hold on to the source documents
+   * (or what was extracted from them) only until then; afterwards only the compact
+   * lookup tables needed for getSummary and getLink are kept.
+   */
+  void release() {
+  }
+
+  /** Returns the urls of all documents this scan reads, in the form accepted by DomLoader. */
+  abstract List<String> getSourceUrls();
+
+  static <T> T await(Future<T> future) {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new RuntimeException(e.getCause());
+    }
+  }
   
   
   public void addDocumentation(Artifact artifact) {
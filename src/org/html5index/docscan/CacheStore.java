@@ -0,0 +1,25 @@
+package org.html5index.docscan;
+
+import java.io.IOException;
+import java.util.Properties;
+
+/**
+ * Storage backend for the DocumentCache. Entries are keyed by url and consist of the
+ * document content and a set of metadata properties (validators, hash, check time).
+ */
+public interface CacheStore {
+
+  /** Returns the metadata stored for the given url or null if there is none. */
+  Properties getMetadata(String url) throws IOException;
+
+  /** Returns the content stored for the given url or null if there is none. */
+  byte[] getContent(String url) throws IOException;
+
+  /** Stores content and metadata for the given url, replacing any existing entry. */
+  void put(String url, Properties metadata, byte[] content) throws IOException;
+
+  /** Replaces the metadata of an existing entry, keeping its content. */
+  void putMetadata(String url, Properties metadata) throws IOException;
+
+  void close() throws IOException;
+}
@@ -1,17 +1,191 @@
 package org.html5index.docscan;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.html5index.idl.IdlParser;
+import org.html5index.model.Artifact;
 import org.html5index.model.DocumentationProvider;
 import org.html5index.model.Library;
+import org.html5index.model.Member;
 import org.html5index.model.Model;
+import org.html5index.model.ModelSnapshot;
+import org.html5index.model.Operation;
+import org.html5index.model.Parameter;
+import org.html5index.model.Property;
+import org.html5index.model.StaticDocumentationProvider;
+import org.html5index.model.Type;
+import org.html5index.util.SymbolTable;
+import org.html5index.util.Tokenizer;
 
 public class DefaultModelReader {
+	/** Number of spec documents fetched and parsed concurrently by default. */
+	public static final int DEFAULT_PARALLELISM = 8;
+
+	/**
+	 * Part of the snapshot key. Bump when the model read from unchanged sources changes in
+	 * a way not covered by the classes in SCANNER_CLASSES, e.g. in a nested class.
+	 */
+	static final int SCANNER_VERSION = 1;
+
+	/** Classes that determine the model read from the sources; their code is part of the snapshot key. */
+	static final Class<?>[] SCANNER_CLASSES = {
+		DefaultModelReader.class, Sources.class, AbstractSpecScan.class, Html5SpecScan.class,
+		ExplicitIdlSpecScan.class, StreamingSpecScanner.class, IdlBlock.class, DomLoader.class,
+		IdlParser.class, Tokenizer.class, SymbolTable.class, Model.class, Library.class,
+		Type.class, Artifact.class, Member.class, Operation.class, Property.class, Parameter.class,
+		StaticDocumentationProvider.class, ModelSnapshot.class
+	};
+
+	private static String codeHash;
+
+	private static File snapshotFile = new File("cache", "model.snapshot");
+
+	/**
+	 * Sets the file keeping a snapshot of the model between runs. If null, the model is
+	 * always read from the sources.
+	 */
+	public static synchronized void setSnapshotFile(File file) {
+		snapshotFile = file;
+	}
+
 	public static Model readModel() {
-		Model model = new Model();
-		for (DocumentationProvider provider: Sources.SOURCES) {
-			Library lib = new Library(provider.getTitle(), true);
-			model.addLibrary(lib);
-			provider.readDocumentation(lib);
+		return readModel(DEFAULT_PARALLELISM);
+	}
+
+	/**
+	 * Reads the model from the snapshot file if it was written for the current state
+	 * of the sources; otherwise reads the model from all sources and writes a new snapshot.
+	 */
+	public static synchronized Model readModel(int parallelism) {
+		if (snapshotFile != null) {
+			String key = getSourceKey();
+			if (key != null) {
+				try {
+					Model model = ModelSnapshot.read(snapshotFile, key);
+					if (model != null) {
+						System.out.println("Model restored from " + snapshotFile);
+						model.freeze();
+						return model;
+					}
+				} catch (IOException e) {
+					System.out.println("Ignoring model snapshot " + snapshotFile + ": " + e);
+				}
+			}
+		}
+		Model model = scanModel(parallelism);
+		if (snapshotFile != null) {
+			String key = getSourceKey();
+			if (key != null) {
+				try {
+					ModelSnapshot.write(model, key, snapshotFile);
+				} catch (IOException e) {
+					System.out.println("Can't write model snapshot " + snapshotFile + ": " + e);
+				}
+			}
 		}
 		return model;
 	}
+
+	/**
+	 * Reads the model from all sources. If parallelism is greater than one, all spec
+	 * documents are fetched and parsed on a pool of that size up front. IDL is still merged
+	 * into the model in source order, so the result does not depend on the parallelism.
+	 */
+	public static Model scanModel(int parallelism) {
+		ExecutorService executor = null;
+		if (parallelism > 1) {
+			executor = Executors.newFixedThreadPool(parallelism);
+			for (DocumentationProvider provider: Sources.SOURCES) {
+				if (provider instanceof AbstractSpecScan) {
+					((AbstractSpecScan) provider).prefetch(executor);
+				}
+			}
+		}
+		try {
+			Model model = new Model();
+			for (DocumentationProvider provider: Sources.SOURCES) {
+				Library lib = new Library(provider.getTitle(), true);
+				model.addLibrary(lib);
+				provider.readDocumentation(lib);
+			}
+			model.freeze();
+			return model;
+		} finally {
+			if (executor != null) {
+				executor.shutdownNow();
+			}
+		}
+	}
+
+	/**
+	 * Returns a hash of the scanner code, the title, category and tutorials of all sources
+	 * and the hashes of their documents in the document cache. Returns null if any document is not
+	 * cached or due for revalidation, as the sources need to be read in that case anyway.
+	 */
+	static String getSourceKey() {
+		try {
+			DocumentCache cache = DomLoader.getCache();
+			StringBuilder sb = new StringBuilder();
+			sb.append(SCANNER_VERSION).append(' ').append(getCodeHash()).append('\n');
+			for (DocumentationProvider provider: Sources.SOURCES) {
+				if (!(provider instanceof AbstractSpecScan)) {
+					return null;
+				}
+				sb.append(provider.getClass().getName()).append('\n');
+				sb.append(provider.getTitle()).append('\n');
+				sb.append(provider.getCategory()).append('\n');
+				sb.append(provider.getTutorials()).append('\n');
+				for (String url: ((AbstractSpecScan) provider).getSourceUrls()) {
+					String hash = url.startsWith("/") ? DocumentCache.hash(DomLoader.loadText(url))
+							: cache.getFreshHash(url);
+					if (hash == null) {
+						return null;
+					}
+					sb.append(url).append(' ').append(hash).append('\n');
+				}
+			}
+			return DocumentCache.hash(sb.toString());
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Returns a hash of the class files of SCANNER_CLASSES, so a snapshot written by a
+	 * different build of the scanner is not used.
+	 */
+	static synchronized String getCodeHash() throws IOException {
+		if (codeHash == null) {
+			StringBuilder sb = new StringBuilder();
+			for (Class<?> c: SCANNER_CLASSES) {
+				String resource = "/" + c.getName().replace('.', '/') + ".class";
+				InputStream is = c.getResourceAsStream(resource);
+				if (is == null) {
+					throw new IOException("Can't read " + resource);
+				}
+				try {
+					sb.append(c.getName()).append(' ').append(DocumentCache.hash(readFully(is))).append('\n');
+				} finally {
+					is.close();
+				}
+			}
+			codeHash = DocumentCache.hash(sb.toString());
+		}
+		return codeHash;
+	}
+
+	private static byte[] readFully(InputStream is) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		byte[] buf = new byte[8192];
+		int count;
+		while ((count = is.read(buf)) != -1) {
+			baos.write(buf, 0, count);
+		}
+		return baos.toByteArray();
+	}
 }
@@ -0,0 +1,141 @@
+package org.html5index.docscan;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Properties;
+
+/**
+ * Stores each document as a separate uncompressed file, with the metadata in a
+ * properties file next to it. This is the original cache layout; since file names
+ * derived from urls may collide, the url recorded in the metadata is checked on read.
+ */
+public class DirectoryCacheStore implements CacheStore {
+  private final File dir;
+
+  public DirectoryCacheStore(File dir) {
+    this.dir = dir;
+  }
+
+  File getFile(String url) {
+    return new File(dir, url.replace(":", "_").replace("/", "_2"));
+  }
+
+  File getMetaFile(String url) {
+    return new File(dir, getFile(url).getName() + ".properties");
+  }
+
+  /** Returns the metadata in the given file, which may belong to any url, or null. */
+  private static Properties readMetadata(File file) throws IOException {
+    if (!file.exists()) {
+      return null;
+    }
+    Properties meta = new Properties();
+    FileInputStream fis = new FileInputStream(file);
+    try {
+      meta.load(fis);
+    } finally {
+      fis.close();
+    }
+    return meta;
+  }
+
+  @Override
+  public Properties getMetadata(String url) throws IOException {
+    Properties meta = readMetadata(getMetaFile(url));
+    return meta != null && url.equals(meta.getProperty(DocumentCache.URL)) ? meta : null;
+  }
+
+  /**
+   * Returns the content stored for url. Files without metadata, as written before
+   * metadata was recorded, are returned as is; files whose metadata names another url
+   * are not.
+   */
+  @Override
+  public byte[] getContent(String url) throws IOException {
+    File file = getFile(url);
+    if (!file.exists()) {
+      return null;
+    }
+    Properties meta = readMetadata(getMetaFile(url));
+    if (meta != null && !url.equals(meta.getProperty(DocumentCache.URL))) {
+      return null;
+    }
+    DataInputStream dis = new DataInputStream(new FileInputStream(file));
+    byte[] buf = new byte[(int) file.length()];
+    dis.readFully(buf);
+    dis.close();
+    return buf;
+  }
+
+  @Override
+  public void put(String url, Properties metadata, byte[] content) throws IOException {
+    dir.mkdirs();
+    FileOutputStream fos = new FileOutputStream(getFile(url));
+    fos.write(content);
+    fos.close();
+    putMetadata(url, metadata);
+  }
+
+  @Override
+  public void putMetadata(String url, Properties metadata) throws IOException {
+    dir.mkdirs();
+    FileOutputStream fos = new FileOutputStream(getMetaFile(url));
+    metadata.store(fos, null);
+    fos.close();
+  }
+
+  /**
+   * Copies all entries to target and returns their number. Files written before metadata
+   * was recorded get their url from the file name and are marked as checked now, so they
+   * are revalidated once the TTL has passed. Other files in the directory are skipped.
+   */
+  public int copyTo(CacheStore target) throws IOException {
+    File[] files = dir.listFiles();
+    if (files == null) {
+      return 0;
+    }
+    int count = 0;
+    for (File file: files) {
+      String name = file.getName();
+      if (!file.isFile() || name.endsWith(".properties")) {
+        continue;
+      }
+      Properties meta = readMetadata(new File(dir, name + ".properties"));
+      String url = meta != null ? meta.getProperty(DocumentCache.URL) : getUrl(name);
+      if (url == null || !getFile(url).getName().equals(name)) {
+        continue;
+      }
+      byte[] content = getContent(url);
+      if (meta == null) {
+        meta = new Properties();
+        meta.setProperty(DocumentCache.URL, url);
+        meta.setProperty(DocumentCache.HASH, DocumentCache.hash(content));
+        meta.setProperty(DocumentCache.CHECKED, String.valueOf(System.currentTimeMillis()));
+      }
+      target.put(url, meta, content);
+      count++;
+    }
+    return count;
+  }
+
+  /**
+   * Returns the url for a file name written by getFile, or null if it is not one. The
+   * mapping is not reversible in general; ":" is assumed only after the scheme.
+   */
+  static String getUrl(String fileName) {
+    String url = fileName.replace("_2", "/");
+    for (String scheme: new String[] {"http", "https"}) {
+      if (url.startsWith(scheme + "_//")) {
+        return scheme + ":" + url.substring(scheme.length() + 1);
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public void close() {
+  }
+}
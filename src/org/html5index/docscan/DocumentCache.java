@@ -0,0 +1,182 @@
+package org.html5index.docscan;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+
+/**
+ * Cache for spec documents. Along with each cached document, the cache store keeps
+ * the ETag and Last-Modified validators sent by the server, a SHA-1 hash of the cached
+ * content and the time the entry was last checked. Entries older than the TTL are
+ * revalidated with a conditional GET; if the server can't be reached or does not respond
+ * within the timeout, the cached copy is used regardless of its age.
+ */
+public class DocumentCache {
+  public static final long DEFAULT_TTL = 24L * 60 * 60 * 1000;
+  public static final int DEFAULT_TIMEOUT = 30 * 1000;
+
+  static final String URL = "url";
+  static final String ETAG = "etag";
+  static final String LAST_MODIFIED = "lastModified";
+  static final String HASH = "sha1";
+  static final String CHECKED = "checked";
+
+  private final CacheStore store;
+  private final long ttl;
+  private final int timeout;
+
+  /**
+   * @param store the backend holding the cached documents and their metadata
+   * @param ttl the time in milliseconds after which entries are revalidated
+   */
+  public DocumentCache(CacheStore store, long ttl) {
+    this(store, ttl, DEFAULT_TIMEOUT);
+  }
+
+  /**
+   * @param store the backend holding the cached documents and their metadata
+   * @param ttl the time in milliseconds after which entries are revalidated
+   * @param timeout the connect and read timeout in milliseconds for fetching documents
+   */
+  public DocumentCache(CacheStore store, long ttl, int timeout) {
+    this.store = store;
+    this.ttl = ttl;
+    this.timeout = timeout;
+  }
+
+  public CacheStore getStore() {
+    return store;
+  }
+
+  /**
+   * Returns the content of the given url, fetching or revalidating it if necessary.
+   */
+  public String load(String url) throws IOException {
+    return new String(loadContent(url), "utf-8");
+  }
+
+  /**
+   * Returns a reader for the content of the given url, fetching or revalidating it if
+   * necessary. The content is decoded while it is read, so unlike load() this does not
+   * keep a decoded copy of the whole document.
+   */
+  public BufferedReader openReader(String url) throws IOException {
+    return new BufferedReader(new InputStreamReader(new ByteArrayInputStream(loadContent(url)), "utf-8"));
+  }
+
+  /** Returns the UTF-8 encoded content of the given url. */
+  private byte[] loadContent(String url) throws IOException {
+    Properties meta = store.getMetadata(url);
+    byte[] cached = store.getContent(url);
+    if (cached != null) {
+      if (meta != null && !hash(cached).equals(meta.getProperty(HASH))) {
+        System.out.println("Cache entry for " + url + " is corrupt; refetching.");
+        cached = null;
+        meta = null;
+      }
+    }
+    long now = System.currentTimeMillis();
+    if (cached != null && meta != null &&
+        now - Long.parseLong(meta.getProperty(CHECKED, "0")) < ttl) {
+      return cached;
+    }
+
+    byte[] content;
+    URLConnection con = new URL(url).openConnection();
+    con.setConnectTimeout(timeout);
+    con.setReadTimeout(timeout);
+    try {
+      if (cached != null && meta != null) {
+        if (meta.getProperty(ETAG) != null) {
+          con.setRequestProperty("If-None-Match", meta.getProperty(ETAG));
+        }
+        if (meta.getProperty(LAST_MODIFIED) != null) {
+          con.setRequestProperty("If-Modified-Since", meta.getProperty(LAST_MODIFIED));
+        }
+        if (con instanceof HttpURLConnection &&
+            ((HttpURLConnection) con).getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+          meta.setProperty(CHECKED, String.valueOf(now));
+          store.putMetadata(url, meta);
+          return cached;
+        }
+      }
+      BufferedReader reader = new BufferedReader(new InputStreamReader(con.getInputStream(), getCharset(con)));
+      content = DomLoader.loadText(reader).getBytes("utf-8");
+      reader.close();
+    } catch (IOException e) {
+      if (cached == null) {
+        throw e;
+      }
+      System.out.println("Can't revalidate " + url + "; using cached copy (" + e + ").");
+      return cached;
+    }
+
+    meta = new Properties();
+    meta.setProperty(URL, url);
+    meta.setProperty(HASH, hash(content));
+    meta.setProperty(CHECKED, String.valueOf(now));
+    if (con.getHeaderField("ETag") != null) {
+      meta.setProperty(ETAG, con.getHeaderField("ETag"));
+    }
+    if (con.getHeaderField("Last-Modified") != null) {
+      meta.setProperty(LAST_MODIFIED, con.getHeaderField("Last-Modified"));
+    }
+    store.put(url, meta, content);
+    return content;
+  }
+
+  /**
+   * Returns the hash of the cached content of the given url, or null if the url is not
+   * cached or the entry is due for revalidation.
+   */
+  public String getFreshHash(String url) throws IOException {
+    Properties meta = store.getMetadata(url);
+    if (meta == null || meta.getProperty(HASH) == null ||
+        System.currentTimeMillis() - Long.parseLong(meta.getProperty(CHECKED, "0")) >= ttl) {
+      return null;
+    }
+    return meta.getProperty(HASH);
+  }
+
+  static String getCharset(URLConnection con) {
+    String contentType = con.getContentType();
+    if (contentType != null) {
+      for (String part: contentType.split(";")) {
+        part = part.trim();
+        if (part.startsWith("charset=")) {
+          return part.substring(8);
+        }
+      }
+    }
+    return "ISO-8859-1";
+  }
+
+  static String hash(String text) {
+    try {
+      return hash(text.getBytes("utf-8"));
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  static String hash(byte[] data) {
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-1").digest(data);
+      StringBuilder sb = new StringBuilder();
+      for (byte b: digest) {
+        sb.append(Character.forDigit((b >> 4) & 15, 16));
+        sb.append(Character.forDigit(b & 15, 16));
+      }
+      return sb.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
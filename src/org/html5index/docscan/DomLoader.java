@@ -2,17 +2,10 @@ package org.html5index.docscan;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
 import java.io.Reader;
-import java.io.StringReader;
-import java.io.Writer;
-import java.net.URL;
-import java.net.URLConnection;
 
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerFactory;
@@ -21,44 +14,46 @@ import javax.xml.transform.sax.SAXSource;
 
 import org.ccil.cowan.tagsoup.Parser;
 import org.w3c.dom.Document;
+import org.xml.sax.ContentHandler;
 import org.xml.sax.InputSource;
 
 public class DomLoader {
-  
+  private static DocumentCache cache;
+
+  /**
+   * Replaces the cache used for documents that are not loaded from the class path,
+   * e.g. to change the revalidation interval or the cache location.
+   */
+  public static synchronized void setCache(DocumentCache cache) {
+    DomLoader.cache = cache;
+  }
+
+  /**
+   * Returns the document cache, by default backed by a single pack file in the cache
+   * directory. Documents cached in the cache directory itself by earlier versions are
+   * imported into a new pack file; the old files are left in place.
+   */
+  public static synchronized DocumentCache getCache() throws IOException {
+    if (cache == null) {
+      File dir = new File("cache");
+      PackCacheStore store = new PackCacheStore(new File(dir, "specs.pack"));
+      if (store.isEmpty()) {
+        int count = new DirectoryCacheStore(dir).copyTo(store);
+        if (count > 0) {
+          System.out.println("Imported " + count + " cached documents into " + dir + "/specs.pack");
+        }
+      }
+      cache = new DocumentCache(store, DocumentCache.DEFAULT_TTL);
+    }
+    return cache;
+  }
   
   public static BufferedReader openReader(String url) throws IOException {
     if (url.startsWith("/")) {
       InputStream inputStream = DomLoader.class.getResourceAsStream(url);
       return new BufferedReader(new InputStreamReader(inputStream, "utf-8"));
     } 
-    String cacheName = url.replace(":", "_").replace("/", "_2");
-    File cacheFile = new File("cache", cacheName);
-    if (cacheFile.exists()) {
-      return new BufferedReader(new InputStreamReader(new FileInputStream(cacheFile), "utf-8"));
-    }
-      
-    URLConnection con = new URL(url).openConnection();
-    String contentType = con.getContentType();
-    String charSet = "ISO-8859-1";
-    if (contentType != null) {
-      for (String part: contentType.split(";")) {
-        part = part.trim();
-        if (part.startsWith("charset=")) {
-          charSet = part.substring(8);
-          break;
-        }
-      }
-    }
-    BufferedReader reader = new BufferedReader(new InputStreamReader(con.getInputStream(), charSet));
-    String text = loadText(reader);
-    reader.close();
-    
-    new File("cache").mkdir();
-    Writer writer = new OutputStreamWriter(new FileOutputStream(cacheFile), "utf-8");
-    writer.write(text);
-    writer.close();
-    
-    return new BufferedReader(new StringReader(text));
+    return getCache().openReader(url);
   }
 
   static String loadText(String url) throws IOException {
@@ -101,4 +96,22 @@ public class DomLoader {
       throw new RuntimeException(e);
     }
    }
+
+  /**
+   * Parses the given document with TagSoup, reporting the SAX events to the given
+   * handler without building a DOM.
+   */
+  public static void parse(String url, ContentHandler handler) {
+    Parser parser = new Parser();
+    try {
+      parser.setFeature(Parser.namespacesFeature, false);
+      parser.setFeature(Parser.namespacePrefixesFeature, false);
+      parser.setContentHandler(handler);
+      Reader reader = openReader(url);
+      parser.parse(new InputSource(reader));
+      reader.close();
+    } catch (Exception e) {
+      throw new RuntimeException(e);
+    }
+  }
 }
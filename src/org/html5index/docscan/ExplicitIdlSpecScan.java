@@ -4,6 +4,10 @@ import java.io.IOException;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import org.html5index.idl.IdlParser;
 import org.html5index.model.Artifact;
@@ -27,23 +31,55 @@ public class ExplicitIdlSpecScan extends AbstractSpecScan {
   HashMap<String,String> index = new HashMap<String, String>();
   HashMap<String,String> summaries = new HashMap<String, String>();
   boolean ecma;
+  boolean fetched;
+  private Future<Document> pendingDoc;
+  private Future<String> pendingIdl;
   
   public ExplicitIdlSpecScan(String title, Category category, String docUrl, String idlUrl) {
     super(title, category);
     this.ecma = title.startsWith("ECMA");
     this.specUrl = docUrl;
     this.idlUrl = idlUrl;
-    System.out.print("Fetching " + docUrl + "...");
-    Document doc = DomLoader.loadDom(docUrl);
-    System.out.println("Done.");
-    
-    specTitle = docUrl;
-    NodeList list = doc.getElementsByTagName("title");
-    if (list.getLength() > 0) {
-      specTitle = list.item(0).getTextContent();
+    this.specTitle = docUrl;
+  }
+
+  @Override
+  void prefetch(ExecutorService executor) {
+    if (fetched || pendingDoc != null) {
+      return;
+    }
+    pendingDoc = executor.submit(new Callable<Document>() {
+      @Override
+      public Document call() {
+        return loadSpec();
+      }
+    });
+    pendingIdl = executor.submit(new Callable<String>() {
+      @Override
+      public String call() throws Exception {
+        return DomLoader.loadText(idlUrl);
+      }
+    });
+  }
+
+  Document loadSpec() {
+    System.out.println("Fetching " + specUrl + "...");
+    return DomLoader.loadDom(specUrl);
+  }
+
+  void fetchAll() {
+    if (!fetched) {
+      fetched = true;
+      Document doc = pendingDoc == null ? loadSpec() : await(pendingDoc);
+      pendingDoc = null;
+
+      NodeList list = doc.getElementsByTagName("title");
+      if (list.getLength() > 0) {
+        specTitle = list.item(0).getTextContent();
+      }
+
+      scanHeadings(doc.getElementsByTagName(ecma ? "h1" : "*"));
     }
-    
-    scanHeadings(doc.getElementsByTagName(ecma ? "h1" : "*"));
   }
   
   void scanHeadings(NodeList list) {
@@ -176,11 +212,18 @@ public class ExplicitIdlSpecScan extends AbstractSpecScan {
     return Collections.singleton(new String[]{specUrl, specTitle});
   }
 
+  @Override
+  List<String> getSourceUrls() {
+    return Arrays.asList(specUrl, idlUrl);
+  }
+
   @Override
   public void readDocumentation(Library lib) {
     try {
       lib.setDocumentationProvider(this);
-      String idl =  DomLoader.loadText(idlUrl);
+      fetchAll();
+      String idl = pendingIdl == null ? DomLoader.loadText(idlUrl) : await(pendingIdl);
+      pendingIdl = null;
       new IdlParser(lib, idl).parse();
     } catch (Exception e) {
       throw new RuntimeException("Loading url " + idlUrl + " failed.", e);
@@ -1,9 +1,13 @@
 package org.html5index.docscan;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import org.html5index.idl.IdlParser;
 import org.html5index.model.Artifact;
@@ -20,12 +24,42 @@ import org.w3c.dom.NodeList;
  */
 public class Html5SpecScan extends AbstractSpecScan {
   final List<String[]> urls = new ArrayList<String[]>();
-  final List<Document> docs = new ArrayList<Document>();
+  final List<FetchedDoc> docs = new ArrayList<FetchedDoc>();
   final Map<String, String[]> definitions = new HashMap<String, String[]>();
-  private NodeList currentIdlLinks;
+  /** Positions of the links of the current IDL block by link text. */
+  private Map<String, List<Integer>> currentIdlAnchors;
+  /** Definition keys of the links of the current IDL block; null for links to unknown keys. */
+  private String[] currentIdlKeys;
   private int currentIdlLinkIndex;
   final HashMap<String,String> typeIdMap = new HashMap<String, String>();
+  /** Resolved definition keys by type name; NO_KEY if there is none. */
+  private final HashMap<String,String> typeKeyCache = new HashMap<String, String>();
+  private static final String NO_KEY = new String("");
   boolean fetched = false;
+  private List<Future<FetchedDoc>> pending;
+  private static boolean streamingScan;
+
+  /**
+   * The definitions and IDL blocks extracted from a spec document. Fetching is
+   * independent of any shared state, so documents can be loaded concurrently. The DOM
+   * itself is dropped as soon as everything needed has been extracted.
+   */
+  static class FetchedDoc {
+    String title;
+    final Map<String, String[]> definitions = new HashMap<String, String[]>();
+    final List<IdlBlock> idlBlocks = new ArrayList<IdlBlock>();
+    final List<IdlBlock> idlCodeBlocks = new ArrayList<IdlBlock>();
+  }
+
+  /**
+   * If set, spec documents are scanned straight from the SAX events of the HTML parser
+   * instead of building a DOM first. Besides the cached document bytes, this keeps only
+   * the extracted definitions and IDL blocks and the text of the open elements, see
+   * StreamingSpecScanner. Set with -streamingscan in the generator main methods.
+   */
+  public static void setStreamingScan(boolean streaming) {
+    streamingScan = streaming;
+  }
 
   Html5SpecScan(String title, Category category, String... urls) {
     super(title, category);
@@ -70,18 +104,30 @@ public class Html5SpecScan extends AbstractSpecScan {
 
   private String getTypeKey(Type type) {
     String name = type.getName();
-    if (name.toLowerCase().indexOf("canvas") != -1) {
-      // doofl;
-      System.out.println("ddd");
+    String key = typeKeyCache.get(name);
+    if (key == null) {
+      key = resolveTypeKey(name);
+      typeKeyCache.put(name, key == null ? NO_KEY : key);
     }
+    return key == NO_KEY ? null : key;
+  }
+
+  /**
+   * Tries the known prefix / suffix combinations for the type name and the derived id,
+   * as given and lower-cased. Prefixes and suffixes are lower case already, so the
+   * lower-cased names are computed once.
+   */
+  private String resolveTypeKey(String name) {
+    String lowerName = name.toLowerCase();
     String id = typeToId(name);
+    String lowerId = id == null ? null : id.toLowerCase();
     for (String prefix: TYPE_ID_PREFIX) {
       for (String suffix: TYPE_ID_SUFFIX) {
         String key = prefix + name + suffix;
         if (isValidKey(key)) {
           return key;
         }
-        key = key.toLowerCase();
+        key = prefix + lowerName + suffix;
         if (isValidKey(key)) {
           return key;
         }
@@ -90,7 +136,7 @@ public class Html5SpecScan extends AbstractSpecScan {
           if (isValidKey(key)) {
             return key;
           }
-          key = key.toLowerCase();
+          key = prefix + lowerId + suffix;
           if (isValidKey(key)) {
             return key;
           }
@@ -99,7 +145,7 @@ public class Html5SpecScan extends AbstractSpecScan {
     }
     return null;
   }
-  
+
   private String getKey(Artifact artifact) {
     if (artifact instanceof Type) {
       String key = getTypeKey((Type) artifact);
@@ -108,27 +154,65 @@ public class Html5SpecScan extends AbstractSpecScan {
       }
     } 
     
-    String name = artifact.getName();
-    int count = currentIdlLinks.getLength();
-    for (int i = 0; i < count; i++) {
-      Element a = (Element) currentIdlLinks.item(currentIdlLinkIndex);
-      if (a.getTextContent().equals(name)) {
-        currentIdlLinkIndex = i;
-        String key = a.getAttribute("href");
-        int cut = key.indexOf('#');
-        if (cut != -1) {
-          key = key.substring(cut + 1);
-          if (isValidKey(key)) {
-            return key;
-          }
-        }
+    if (currentIdlAnchors == null) {
+      return null;
+    }
+    // Artifacts are documented in IDL order, so the next matching link at or after the
+    // previous match is the most likely one; wrap around if there is none.
+    List<Integer> positions = currentIdlAnchors.get(artifact.getName());
+    if (positions == null) {
+      return null;
+    }
+    int i = Collections.binarySearch(positions, currentIdlLinkIndex);
+    if (i < 0) {
+      i = -i - 1;
+      if (i == positions.size()) {
+        i = 0;
       }
-      currentIdlLinkIndex = (currentIdlLinkIndex + 1) % count;
     }
-    return null;
+    currentIdlLinkIndex = positions.get(i);
+    return currentIdlKeys[currentIdlLinkIndex];
+  }
+
+  private void indexLinks(List<String[]> links) {
+    currentIdlAnchors = new HashMap<String, List<Integer>>();
+    currentIdlKeys = new String[links.size()];
+    currentIdlLinkIndex = 0;
+    for (int i = 0; i < links.size(); i++) {
+      String[] link = links.get(i);
+      int cut = link[1].indexOf('#');
+      if (cut == -1) {
+        continue;
+      }
+      String key = link[1].substring(cut + 1);
+      if (!isValidKey(key)) {
+        continue;
+      }
+      currentIdlKeys[i] = key;
+      List<Integer> positions = currentIdlAnchors.get(link[0]);
+      if (positions == null) {
+        positions = new ArrayList<Integer>(1);
+        currentIdlAnchors.put(link[0], positions);
+      }
+      positions.add(i);
+    }
   }
   
 
+  /** Resolves the key once and sets both the summary and the link. */
+  @Override
+  public void addDocumentation(Artifact artifact) {
+    String key = getKey(artifact);
+    String[] urlAndSummary = key == null ? null : definitions.get(key);
+    if (urlAndSummary == null) {
+      artifact.setDocumentationSummary(null);
+      artifact.setDocumentationUrl(null);
+    } else {
+      artifact.setDocumentationSummary(urlAndSummary[1].length() == 0 ? null : urlAndSummary[1]);
+      artifact.setDocumentationUrl(urlAndSummary[0] + "#" + key);
+    }
+  }
+
   @Override
   public String getSummary(Artifact artifact) {
     String key = getKey(artifact);
@@ -160,25 +244,61 @@ public class Html5SpecScan extends AbstractSpecScan {
   public Iterable<String[]> getUrls() {
     return urls;
   }
+
+  @Override
+  List<String> getSourceUrls() {
+    List<String> result = new ArrayList<String>();
+    for (String[] urlAndTitle: urls) {
+      result.add(urlAndTitle[0]);
+    }
+    return result;
+  }
   
+  @Override
+  void prefetch(ExecutorService executor) {
+    if (fetched || pending != null) {
+      return;
+    }
+    pending = new ArrayList<Future<FetchedDoc>>();
+    for (final String[] urlAndTitle : urls) {
+      pending.add(executor.submit(new Callable<FetchedDoc>() {
+        @Override
+        public FetchedDoc call() {
+          return fetch(urlAndTitle[0]);
+        }
+      }));
+    }
+  }
+
   void fetchAll() {
     if (!fetched) {
       fetched = true;
-      for (String[] urlAndTitle : urls) {
-        urlAndTitle[1] = fetch(urlAndTitle[0]);
+      typeKeyCache.clear();
+      for (int i = 0; i < urls.size(); i++) {
+        String[] urlAndTitle = urls.get(i);
+        FetchedDoc fetchedDoc = pending == null ? fetch(urlAndTitle[0]) : await(pending.get(i));
+        docs.add(fetchedDoc);
+        definitions.putAll(fetchedDoc.definitions);
+        urlAndTitle[1] = fetchedDoc.title;
       }
+      pending = null;
     }
   }
 
-  String fetch(String url) {
+  FetchedDoc fetch(String url) {
     System.out.println(title + ": " + url);
+    FetchedDoc result = new FetchedDoc();
+    if (streamingScan) {
+      StreamingSpecScanner scanner = new StreamingSpecScanner(url, result);
+      DomLoader.parse(url, scanner);
+      return result;
+    }
     Document doc = DomLoader.loadDom(url);
-    String title = url;
+    result.title = url;
     NodeList list = doc.getElementsByTagName("title");
     if (list.getLength() > 0) {
-      title = list.item(0).getTextContent();
+      result.title = list.item(0).getTextContent();
     }
-    docs.add(doc);
 
     // Read summaries
     list = doc.getElementsByTagName("*");
@@ -226,17 +346,60 @@ public class Html5SpecScan extends AbstractSpecScan {
             text = "";
           }
         }
-        definitions.put(id, new String[]{url, HtmlWriter.summary(text)});
+        result.definitions.put(id, new String[]{url, HtmlWriter.summary(text)});
       }
     }
-    return title;
+
+    // Read idl
+    list = doc.getElementsByTagName("pre");
+    for (int i = 0; i < list.getLength(); i++) {
+      Element pre = (Element) list.item(i);
+      String tc = pre.getTextContent().trim();
+      if (isIdl(pre.getAttribute("class"), tc)) {
+        result.idlBlocks.add(createBlock(tc, pre));
+      }
+    }
+    list = doc.getElementsByTagName("code");
+    for (int i = 0; i < list.getLength(); i++) {
+      Element code = (Element) list.item(i);
+      if (code.getAttribute("class").equals("idl-code")) {
+        result.idlCodeBlocks.add(createBlock(code.getTextContent(), code));
+      }
+    }
+    return result;
+  }
+
+  static boolean isIdl(String className, String text) {
+    return className.equals("idl") || 
+        text.startsWith("interface ") || text.startsWith("partial interface");
+  }
+
+  static String fixIdl(String idl) {
+    idl = idl.replace("createFor()Blob", "createFor(Blob");
+    return idl.replace("attribute DOMString _camel-cased attribute", "attribute DOMString _camel_cased_attribute");
+  }
+
+  static String fixIdlCode(String idl) {
+    // Fix known issues
+    return idl.replace("static DOMString? createFor()Blob blob);", 
+        "static DOMString? createFor(Blob blob);");
+  }
+
+  static IdlBlock createBlock(String idl, Element element) {
+    IdlBlock block = new IdlBlock();
+    block.idl = idl;
+    NodeList list = element.getElementsByTagName("a");
+    for (int i = 0; i < list.getLength(); i++) {
+      Element a = (Element) list.item(i);
+      block.links.add(new String[] {a.getTextContent(), a.getAttribute("href")});
+    }
+    return block;
   }
 
-  void addIdl(Library lib, String idl, NodeList links) {
+  void addIdl(Library lib, String idl, List<String[]> links) {
     try {
       // Hack... :-/
-      currentIdlLinks = links;
-      currentIdlLinkIndex = 0;
+      indexLinks(links);
       new IdlParser(lib, idl).parse();
     } catch(Exception e) {
       System.out.println(idl);
@@ -248,36 +411,32 @@ public class Html5SpecScan extends AbstractSpecScan {
   public void readDocumentation(Library lib) {
     fetchAll();
     lib.setDocumentationProvider(this);
-    
-    for (Document doc: docs) {
-      // Read idl
-      NodeList list = doc.getElementsByTagName("pre");
-      for (int i = 0; i < list.getLength(); i++) {
-        Element pre = (Element) list.item(i);
-        String tc = pre.getTextContent().trim();
-        if (pre.getAttribute("class").equals("idl") || 
-            tc.startsWith("interface ") || tc.startsWith("partial interface")) {
-
-          tc = tc.replace("createFor()Blob", "createFor(Blob");
-          tc = tc.replace("attribute DOMString _camel-cased attribute", "attribute DOMString _camel_cased_attribute");
-          addIdl(lib, tc, pre.getElementsByTagName("a"));
+    try {
+      for (FetchedDoc fetchedDoc: docs) {
+        for (IdlBlock block: fetchedDoc.idlBlocks) {
+          addIdl(lib, fixIdl(block.idl), block.links);
         }
-      }
-    
-      if (title.indexOf("File API") != -1) {
-        // The file spec uses this idl code annotation. We permit both for the case that this gets fixed...
-        list = doc.getElementsByTagName("code");
-        for (int i = 0; i < list.getLength(); i++) {
-          Element code = (Element) list.item(i);
-          if (code.getAttribute("class").equals("idl-code")) {
-            String tc = code.getTextContent();
-            // Fix known issues
-            tc = tc.replace("static DOMString? createFor()Blob blob);", 
-                "static DOMString? createFor(Blob blob);");
-            addIdl(lib, tc, code.getElementsByTagName("a"));
+        if (title.indexOf("File API") != -1) {
+          // The file spec uses this idl code annotation. We permit both for the case that this gets fixed...
+          for (IdlBlock block: fetchedDoc.idlCodeBlocks) {
+            addIdl(lib, fixIdlCode(block.idl), block.links);
           }
         }
       }
+    } finally {
+      release();
     }
   }
+
+  /**
+   * Drops the IDL blocks. The definitions are kept for later documentation lookups;
+   * reading the documentation again fetches the documents again.
+   */
+  @Override
+  void release() {
+    docs.clear();
+    currentIdlAnchors = null;
+    currentIdlKeys = null;
+    fetched = false;
+  }
 }
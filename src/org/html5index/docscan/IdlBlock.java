@@ -0,0 +1,13 @@
+package org.html5index.docscan;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An IDL fragment found in a spec document, together with the text and href of each
+ * link inside the fragment.
+ */
+class IdlBlock {
+  String idl;
+  final List<String[]> links = new ArrayList<String[]>();
+}
@@ -0,0 +1,342 @@
+package org.html5index.docscan;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeSet;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Stores all documents in a single append-only pack file. Document content is deflate
+ * compressed. Updating an entry appends a new record, and the last record for a url wins;
+ * metadata-only updates (e.g. after a 304 response) refer back to the content of an
+ * earlier record instead of repeating it.
+ * <p>
+ * The file is memory-mapped for reading. When the store is opened, the record headers
+ * are scanned once to build an in-memory index from url to record, so reading an entry
+ * does not require any further seeks through the file. If more than half of the file
+ * consists of superseded records at that point, the file is compacted in place.
+ * <p>
+ * The store holds an exclusive lock on the file while it is open; a second process
+ * opening the same file waits until the first one closes it.
+ * <p>
+ * Layout: the magic number and format version, followed by records of the form
+ * <pre>
+ * int length  (of the remainder of the record)
+ * string url
+ * int count, followed by count pairs of string key / string value  (metadata)
+ * int rawLength
+ * int compressedLength
+ * boolean inline
+ * inline ? byte[compressedLength] content : long contentOffset
+ * </pre>
+ * Strings are stored as an unsigned short byte count followed by the UTF-8 bytes.
+ */
+public class PackCacheStore implements CacheStore {
+  static final int MAGIC = 0x48355043;  // "H5PC"
+  static final int VERSION = 1;
+  /** Files smaller than this are never compacted. */
+  static final long COMPACT_MIN_SIZE = 1 << 20;
+  /** Deflate can't expand content by more than this factor, so larger raw lengths are damaged. */
+  static final long MAX_DEFLATE_RATIO = 1032;
+
+  static class Entry {
+    Properties metadata;
+    int rawLength;
+    int compressedLength;
+    long contentOffset;
+    /** The size of the record with its content inline. */
+    long recordSize;
+  }
+
+  private final File file;
+  private final RandomAccessFile raf;
+  private final FileChannel channel;
+  private final FileLock lock;
+  private final Map<String, Entry> index = new HashMap<String, Entry>();
+  private MappedByteBuffer mapped;
+
+  public PackCacheStore(File file) throws IOException {
+    this.file = file;
+    File dir = file.getAbsoluteFile().getParentFile();
+    if (dir != null) {
+      dir.mkdirs();
+    }
+    raf = new RandomAccessFile(file, "rw");
+    channel = raf.getChannel();
+    FileLock fileLock = channel.tryLock();
+    if (fileLock == null) {
+      System.out.println("Waiting for cache pack " + file + ", which is in use by another process.");
+      fileLock = channel.lock();
+    }
+    lock = fileLock;
+    if (channel.size() == 0) {
+      writeHeader(channel);
+    }
+    readIndex();
+    long live = 8;
+    for (Entry entry: index.values()) {
+      live += entry.recordSize;
+    }
+    if (channel.size() >= COMPACT_MIN_SIZE && live * 2 < channel.size()) {
+      compact();
+    }
+  }
+
+  private static void writeHeader(FileChannel target) throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(8);
+    header.putInt(MAGIC).putInt(VERSION).flip();
+    target.write(header, 0);
+  }
+
+  private void readIndex() throws IOException {
+    index.clear();
+    long size = channel.size();
+    mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+    if (size < 8 || mapped.getInt(0) != MAGIC || mapped.getInt(4) != VERSION) {
+      throw new IOException("Not a cache pack file (or unsupported version): " + file);
+    }
+    int pos = 8;
+    while (pos + 4 <= size) {
+      int length = mapped.getInt(pos);
+      if (length <= 0 || pos + 4L + length > size) {
+        break;
+      }
+      int end = pos + 4 + length;
+      // All reads are bounded by the record, so a damaged record can't run into the next.
+      ByteBuffer record = mapped.duplicate();
+      record.limit(end);
+      record.position(pos + 4);
+      String url;
+      Entry entry = new Entry();
+      boolean inline;
+      try {
+        url = readUtf(record);
+        entry.metadata = new Properties();
+        int count = record.getInt();
+        if (count < 0) {
+          break;
+        }
+        for (int i = 0; i < count; i++) {
+          String key = readUtf(record);
+          entry.metadata.setProperty(key, readUtf(record));
+        }
+        entry.rawLength = record.getInt();
+        entry.compressedLength = record.getInt();
+        inline = record.get() != 0;
+        entry.contentOffset = inline ? record.position() : record.getLong();
+      } catch (BufferUnderflowException e) {
+        break;
+      }
+      if (entry.compressedLength < 0 || entry.rawLength < 0 ||
+          entry.rawLength > MAX_DEFLATE_RATIO * entry.compressedLength || (inline ?
+          entry.contentOffset + entry.compressedLength != end :
+          entry.contentOffset < 8 || entry.contentOffset + entry.compressedLength > pos)) {
+        break;
+      }
+      entry.recordSize = 4L + length + (inline ? 0 : entry.compressedLength);
+      index.put(url, entry);
+      pos = end;
+    }
+    if (pos != size) {
+      // Incomplete record from an interrupted write, or a damaged one.
+      System.out.println("Truncating damaged cache pack " + file + " at " + pos);
+      channel.truncate(pos);
+      mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, pos);
+    }
+  }
+
+  /**
+   * Rewrites the file with only the current record of each url. The records are
+   * written to a temporary file first and then copied back, so other processes waiting
+   * for the lock keep using the same file.
+   */
+  private void compact() throws IOException {
+    List<Map.Entry<String, Entry>> entries = new ArrayList<Map.Entry<String, Entry>>(index.entrySet());
+    Collections.sort(entries, new Comparator<Map.Entry<String, Entry>>() {
+      @Override
+      public int compare(Map.Entry<String, Entry> a, Map.Entry<String, Entry> b) {
+        return Long.compare(a.getValue().contentOffset, b.getValue().contentOffset);
+      }
+    });
+    File tmp = new File(file.getPath() + ".tmp");
+    RandomAccessFile tmpRaf = new RandomAccessFile(tmp, "rw");
+    try {
+      FileChannel tmpChannel = tmpRaf.getChannel();
+      tmpChannel.truncate(0);
+      writeHeader(tmpChannel);
+      for (Map.Entry<String, Entry> e: entries) {
+        Entry entry = e.getValue();
+        writeRecord(tmpChannel, e.getKey(), entry.metadata, entry, readCompressed(entry));
+      }
+      long size = tmpChannel.size();
+      long pos = 0;
+      while (pos < size) {
+        pos += tmpChannel.transferTo(pos, size - pos, channel.position(pos));
+      }
+      channel.truncate(size);
+      channel.force(false);
+    } finally {
+      tmpRaf.close();
+      tmp.delete();
+    }
+    readIndex();
+  }
+
+  private static String readUtf(ByteBuffer buf) throws IOException {
+    byte[] bytes = new byte[buf.getShort() & 0xffff];
+    buf.get(bytes);
+    return new String(bytes, "utf-8");
+  }
+
+  /** Writes the string in the format read by readUtf. */
+  private static void writeUtf(DataOutputStream dos, String s) throws IOException {
+    byte[] bytes = s.getBytes("utf-8");
+    if (bytes.length > 0xffff) {
+      throw new IOException("String too long for the cache pack: " + s.substring(0, 100) + "...");
+    }
+    dos.writeShort(bytes.length);
+    dos.write(bytes);
+  }
+
+  synchronized boolean isEmpty() {
+    return index.isEmpty();
+  }
+
+  @Override
+  public synchronized Properties getMetadata(String url) {
+    Entry entry = index.get(url);
+    return entry == null ? null : (Properties) entry.metadata.clone();
+  }
+
+  @Override
+  public synchronized byte[] getContent(String url) throws IOException {
+    Entry entry = index.get(url);
+    if (entry == null) {
+      return null;
+    }
+    Inflater inflater = new Inflater();
+    inflater.setInput(readCompressed(entry));
+    byte[] result = new byte[entry.rawLength];
+    try {
+      int len = 0;
+      while (len < result.length && !inflater.finished()) {
+        len += inflater.inflate(result, len, result.length - len);
+      }
+      if (len != result.length) {
+        throw new IOException("Truncated cache entry for " + url);
+      }
+    } catch (DataFormatException e) {
+      throw new IOException("Corrupt cache entry for " + url, e);
+    } finally {
+      inflater.end();
+    }
+    return result;
+  }
+
+  private byte[] readCompressed(Entry entry) throws IOException {
+    if (entry.contentOffset + entry.compressedLength > mapped.capacity()) {
+      mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    byte[] compressed = new byte[entry.compressedLength];
+    ByteBuffer view = mapped.duplicate();
+    view.position((int) entry.contentOffset);
+    view.get(compressed);
+    return compressed;
+  }
+
+  @Override
+  public synchronized void put(String url, Properties metadata, byte[] content) throws IOException {
+    Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+    deflater.setInput(content);
+    deflater.finish();
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream(content.length / 4 + 64);
+    byte[] buf = new byte[8192];
+    while (!deflater.finished()) {
+      compressed.write(buf, 0, deflater.deflate(buf));
+    }
+    deflater.end();
+
+    Entry entry = new Entry();
+    entry.rawLength = content.length;
+    entry.compressedLength = compressed.size();
+    writeRecord(channel, url, metadata, entry, compressed.toByteArray());
+    index.put(url, entry);
+  }
+
+  @Override
+  public synchronized void putMetadata(String url, Properties metadata) throws IOException {
+    Entry old = index.get(url);
+    if (old == null) {
+      throw new IllegalStateException("No cache entry for " + url);
+    }
+    Entry entry = new Entry();
+    entry.rawLength = old.rawLength;
+    entry.compressedLength = old.compressedLength;
+    entry.contentOffset = old.contentOffset;
+    writeRecord(channel, url, metadata, entry, null);
+    index.put(url, entry);
+  }
+
+  /**
+   * Appends a record to target and updates entry to describe it. Without compressed
+   * content, the record refers to the content at entry.contentOffset.
+   */
+  private static void writeRecord(FileChannel target, String url, Properties metadata,
+      Entry entry, byte[] compressed) throws IOException {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    DataOutputStream dos = new DataOutputStream(baos);
+    dos.writeInt(0);  // length placeholder
+    writeUtf(dos, url);
+    TreeSet<String> keys = new TreeSet<String>(metadata.stringPropertyNames());
+    dos.writeInt(keys.size());
+    for (String key: keys) {
+      writeUtf(dos, key);
+      writeUtf(dos, metadata.getProperty(key));
+    }
+    dos.writeInt(entry.rawLength);
+    dos.writeInt(entry.compressedLength);
+    long recordStart = target.size();
+    if (compressed != null) {
+      dos.writeBoolean(true);
+      entry.contentOffset = recordStart + dos.size();
+      dos.write(compressed);
+    } else {
+      dos.writeBoolean(false);
+      dos.writeLong(entry.contentOffset);
+    }
+    dos.close();
+
+    ByteBuffer record = ByteBuffer.wrap(baos.toByteArray());
+    record.putInt(0, record.capacity() - 4);
+    long pos = recordStart;
+    while (record.hasRemaining()) {
+      pos += target.write(record, pos);
+    }
+    entry.metadata = (Properties) metadata.clone();
+    entry.recordSize = record.capacity() + (compressed == null ? entry.compressedLength : 0);
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    lock.release();
+    channel.close();
+    raf.close();
+  }
+}
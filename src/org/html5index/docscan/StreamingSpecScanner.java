@@ -0,0 +1,354 @@
+package org.html5index.docscan;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.html5index.util.HtmlWriter;
+import org.xml.sax.Attributes;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Scans a spec document in a single pass over its SAX events, collecting the same
+ * id -> summary definitions and IDL blocks that Html5SpecScan extracts from the DOM.
+ * Only the stack of currently open elements is kept; a definition whose summary depends
+ * on text that has not been seen yet (the element itself, the following dd or paragraph,
+ * the first paragraph of a section) is completed when that text has been read.
+ * <p>
+ * Summary text is only captured up to SUMMARY_TEXT_LIMIT characters per element, and
+ * pre elements are dropped as soon as their text shows that they don't contain IDL;
+ * IDL blocks and their links are captured completely. Text is appended to each open
+ * element that is still capturing, so the cost per character is bounded by the nesting
+ * depth.
+ */
+class StreamingSpecScanner extends DefaultHandler {
+  static final int SUMMARY_TEXT_LIMIT = 4096;
+
+  /** An open element. Lists are only allocated when needed. */
+  static class Frame {
+    String name;
+    StringBuilder text;
+    int textLimit;
+    boolean insidePre;
+    boolean section;
+    boolean childSeen;
+    /** Definitions summarized by the text of this element. */
+    List<String[]> textEntries;
+    /** Definitions summarized by the first p of this section. */
+    List<String[]> sectionEntries;
+    String firstParagraph;
+    boolean paragraphSeen;
+    /** Sections for which this is the first p. */
+    List<Frame> feedsSections;
+    /** Definitions on this dt, resolved by the following dd. */
+    List<String[]> dtEntries;
+    /** Definitions on this dd, resolved by its first child p or its own text. */
+    List<String[]> ddEntries;
+    /** Definitions on this heading, resolved by one of the next three siblings. */
+    List<String[]> headingEntries;
+    /** Pending dt definitions of a child, waiting for the next child element. */
+    List<String[]> pendingDt;
+    /** Pending heading definitions of children, waiting for the next child elements. */
+    List<HeadingWatch> headingWatches;
+    IdlBlock block;
+    String href;
+  }
+
+  static class HeadingWatch {
+    final List<String[]> entries;
+    int remaining = 3;
+    HeadingWatch(List<String[]> entries) {
+      this.entries = entries;
+    }
+  }
+
+  private final String url;
+  private final Html5SpecScan.FetchedDoc result;
+  private final ArrayList<Frame> stack = new ArrayList<Frame>();
+  /** The frames of stack that are capturing text and have not reached their limit. */
+  private final ArrayList<Frame> capturing = new ArrayList<Frame>();
+  private boolean titleSeen;
+
+  StreamingSpecScanner(String url, Html5SpecScan.FetchedDoc result) {
+    this.url = url;
+    this.result = result;
+    result.title = url;
+  }
+
+  static <T> List<T> add(List<T> list, T value) {
+    if (list == null) {
+      list = new ArrayList<T>();
+    }
+    list.add(value);
+    return list;
+  }
+
+  static <T> List<T> addAll(List<T> list, List<T> values) {
+    if (list == null) {
+      return values;
+    }
+    list.addAll(values);
+    return list;
+  }
+
+  static void resolve(List<String[]> entries, String text) {
+    if (entries != null) {
+      String summary = HtmlWriter.summary(text);
+      for (String[] entry: entries) {
+        entry[1] = summary;
+      }
+    }
+  }
+
+  static String text(Frame frame) {
+    return frame.text == null ? "" : frame.text.toString();
+  }
+
+  @Override
+  public void startElement(String uri, String localName, String qName, Attributes atts) {
+    String name = qName;
+    Frame parent = stack.isEmpty() ? null : stack.get(stack.size() - 1);
+    Frame frame = new Frame();
+    frame.name = name;
+    frame.insidePre = name.equals("pre") || (parent != null && parent.insidePre);
+
+    if (parent != null) {
+      siblingStarted(parent, frame);
+    }
+    stack.add(frame);
+
+    String className = atts.getValue("class");
+    if (className == null) {
+      className = "";
+    }
+    if (name.equals("div") && className.equals("section")) {
+      frame.section = true;
+    } else if (name.equals("p")) {
+      for (Frame f: stack) {
+        if (f.section && !f.paragraphSeen) {
+          f.paragraphSeen = true;
+          frame.feedsSections = add(frame.feedsSections, f);
+        }
+      }
+    }
+
+    if (name.equals("pre") || (name.equals("code") && className.equals("idl-code"))) {
+      frame.block = new IdlBlock();
+      frame.block.idl = className;
+      (name.equals("pre") ? result.idlBlocks : result.idlCodeBlocks).add(frame.block);
+      capture(frame, Integer.MAX_VALUE);
+    } else if (name.equals("a") && insideBlock()) {
+      String href = atts.getValue("href");
+      frame.href = href == null ? "" : href;
+      capture(frame, Integer.MAX_VALUE);
+    } else if (name.equals("title") && !titleSeen) {
+      titleSeen = true;
+      capture(frame, Integer.MAX_VALUE);
+    } else if (!frame.insidePre && !name.equals("dfn") && !name.equals("code")) {
+      capture(frame, SUMMARY_TEXT_LIMIT);
+    }
+
+    String id = atts.getValue("id");
+    if (id != null && id.length() > 0) {
+      String[] entry = new String[] {url, ""};
+      result.definitions.put(id, entry);
+      int index = stack.size() - 1;
+      while (index > 0 && (stack.get(index).name.equals("dfn") || stack.get(index).name.equals("code"))) {
+        index--;
+      }
+      addDefinition(stack.get(index), entry);
+    }
+  }
+
+  private void capture(Frame frame, int limit) {
+    frame.text = new StringBuilder();
+    frame.textLimit = limit;
+    capturing.add(frame);
+  }
+
+  private boolean insideBlock() {
+    for (int i = stack.size() - 1; i >= 0; i--) {
+      if (stack.get(i).block != null) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Attaches a definition to the element whose surroundings provide its summary. */
+  private void addDefinition(Frame target, String[] entry) {
+    String name = target.name;
+    if (target.section) {
+      target.sectionEntries = add(target.sectionEntries, entry);
+      if (target.firstParagraph != null) {
+        resolve(target.sectionEntries, target.firstParagraph);
+        target.sectionEntries = null;
+      }
+    } else if (target.insidePre || name.startsWith("t")) {
+      entry[1] = "";
+    } else if (name.equals("dt")) {
+      target.dtEntries = add(target.dtEntries, entry);
+    } else if (name.startsWith("h") && name.length() == 2) {
+      target.headingEntries = add(target.headingEntries, entry);
+    } else {
+      target.textEntries = add(target.textEntries, entry);
+    }
+  }
+
+  /** Called when a new child element of parent starts. */
+  private void siblingStarted(Frame parent, Frame child) {
+    String name = child.name;
+    if (!parent.childSeen) {
+      parent.childSeen = true;
+      if (parent.ddEntries != null && name.equals("p")) {
+        child.textEntries = addAll(child.textEntries, parent.ddEntries);
+        parent.ddEntries = null;
+      }
+    }
+    if (parent.pendingDt != null) {
+      if (name.equals("dd")) {
+        child.ddEntries = parent.pendingDt;
+      } else {
+        resolve(parent.pendingDt, "");
+      }
+      parent.pendingDt = null;
+    }
+    if (parent.headingWatches != null) {
+      for (int i = parent.headingWatches.size() - 1; i >= 0; i--) {
+        HeadingWatch watch = parent.headingWatches.get(i);
+        boolean done = true;
+        if (name.startsWith("h")) {
+          resolve(watch.entries, "");
+        } else if (name.equals("p")) {
+          child.textEntries = addAll(child.textEntries, new ArrayList<String[]>(watch.entries));
+        } else if (--watch.remaining == 0) {
+          resolve(watch.entries, "");
+        } else {
+          done = false;
+        }
+        if (done) {
+          parent.headingWatches.remove(i);
+        }
+      }
+      if (parent.headingWatches.isEmpty()) {
+        parent.headingWatches = null;
+      }
+    }
+  }
+
+  @Override
+  public void endElement(String uri, String localName, String qName) {
+    Frame frame = stack.remove(stack.size() - 1);
+    Frame parent = stack.isEmpty() ? null : stack.get(stack.size() - 1);
+    if (!capturing.isEmpty() && capturing.get(capturing.size() - 1) == frame) {
+      capturing.remove(capturing.size() - 1);
+    }
+    String text = text(frame);
+
+    resolve(frame.textEntries, text);
+    resolve(frame.sectionEntries, text);
+    resolve(frame.ddEntries, text);
+    resolve(frame.pendingDt, "");
+    if (frame.headingWatches != null) {
+      for (HeadingWatch watch: frame.headingWatches) {
+        resolve(watch.entries, "");
+      }
+    }
+    if (frame.feedsSections != null) {
+      for (Frame section: frame.feedsSections) {
+        section.firstParagraph = text;
+        resolve(section.sectionEntries, text);
+        section.sectionEntries = null;
+      }
+    }
+    if (frame.dtEntries != null) {
+      if (parent == null) {
+        resolve(frame.dtEntries, "");
+      } else {
+        parent.pendingDt = addAll(parent.pendingDt, frame.dtEntries);
+      }
+    }
+    if (frame.headingEntries != null) {
+      if (parent == null) {
+        resolve(frame.headingEntries, "");
+      } else {
+        parent.headingWatches = add(parent.headingWatches, new HeadingWatch(frame.headingEntries));
+      }
+    }
+
+    if (frame.block != null) {
+      IdlBlock block = frame.block;
+      if (frame.name.equals("pre")) {
+        String idl = text.trim();
+        if (Html5SpecScan.isIdl(block.idl, idl)) {
+          block.idl = idl;
+        } else {
+          result.idlBlocks.remove(block);
+        }
+      } else {
+        block.idl = text;
+      }
+    } else if (frame.href != null) {
+      for (Frame f: stack) {
+        if (f.block != null) {
+          f.block.links.add(new String[] {text, frame.href});
+        }
+      }
+    } else if (frame.name.equals("title") && frame.textLimit == Integer.MAX_VALUE) {
+      result.title = text;
+    }
+  }
+
+  @Override
+  public void characters(char[] ch, int start, int length) {
+    for (int i = capturing.size() - 1; i >= 0; i--) {
+      Frame frame = capturing.get(i);
+      StringBuilder sb = frame.text;
+      sb.append(ch, start, Math.min(length, frame.textLimit - sb.length()));
+      if (sb.length() >= frame.textLimit) {
+        capturing.remove(i);
+      } else if (frame.block != null && frame.name.equals("pre") && !isIdlPrefix(frame)) {
+        dropBlock(frame);
+        capturing.remove(i);
+      }
+    }
+  }
+
+  /**
+   * Returns false if the text captured so far shows that the given pre element won't be
+   * accepted by Html5SpecScan.isIdl.
+   */
+  private static boolean isIdlPrefix(Frame frame) {
+    if (frame.block.idl.equals("idl")) {
+      return true;
+    }
+    StringBuilder sb = frame.text;
+    int start = 0;
+    while (start < sb.length() && sb.charAt(start) <= ' ') {
+      start++;
+    }
+    return !differs(sb, start, "interface ") || !differs(sb, start, "partial interface");
+  }
+
+  /** Returns true if the text at start differs from prefix within their common length. */
+  private static boolean differs(StringBuilder sb, int start, String prefix) {
+    int length = Math.min(sb.length() - start, prefix.length());
+    for (int i = 0; i < length; i++) {
+      if (sb.charAt(start + i) != prefix.charAt(i)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Removes the IDL block of the given pre element and stops capturing its text. */
+  private void dropBlock(Frame frame) {
+    result.idlBlocks.remove(frame.block);
+    frame.block = null;
+    frame.text = null;
+  }
+
+  @Override
+  public void ignorableWhitespace(char[] ch, int start, int length) {
+    characters(ch, start, length);
+  }
+}
@@ -1,16 +1,31 @@
 package org.html5index.generator;
 
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
 import org.html5index.docscan.DefaultModelReader;
+import org.html5index.docscan.Html5SpecScan;
 import org.html5index.model.Model;
 
 public class AllGenerator {
 
-	public static void main(String[] args) {
+	/**
+	 * Generates the HTML, JSON and JsDoc output in a single walk over the model. With
+	 * -parallel, each output format is written on its own thread. With -streamingscan,
+	 * spec documents are scanned without building a DOM.
+	 */
+	public static void main(String[] args) throws IOException {
+		List<String> options = Arrays.asList(args);
+		Html5SpecScan.setStreamingScan(options.contains("-streamingscan"));
 		Model model = DefaultModelReader.readModel();
 
-		new HtmlGenerator(model).run();
-		new JsonGenerator(model).run();
-		new JsdocGenerator(model).run();
+		GenerationPipeline pipeline = new GenerationPipeline(model)
+				.add(new HtmlGenerator(model))
+				.add(new JsonGenerator(model))
+				.add(new JsdocGenerator(model));
+		pipeline.setParallel(options.contains("-parallel"));
+		pipeline.run();
 	}
 
 }
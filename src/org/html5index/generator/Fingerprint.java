@@ -0,0 +1,59 @@
+package org.html5index.generator;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Accumulates a SHA-1 fingerprint. Values are separated, so adding "ab", "c" gives a
+ * different fingerprint than adding "a", "bc".
+ */
+class Fingerprint {
+  private final MessageDigest digest;
+
+  Fingerprint() {
+    try {
+      digest = MessageDigest.getInstance("SHA-1");
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  Fingerprint add(String s) {
+    if (s == null) {
+      digest.update((byte) 0);
+    } else {
+      try {
+        digest.update((byte) 1);
+        digest.update(s.getBytes("utf-8"));
+        digest.update((byte) 0);
+      } catch (UnsupportedEncodingException e) {
+        throw new RuntimeException(e);
+      }
+    }
+    return this;
+  }
+
+  Fingerprint add(int i) {
+    digest.update((byte) (i >> 24));
+    digest.update((byte) (i >> 16));
+    digest.update((byte) (i >> 8));
+    digest.update((byte) i);
+    return this;
+  }
+
+  Fingerprint add(byte[] bytes) {
+    digest.update(bytes);
+    return this;
+  }
+
+  public String toString() {
+    byte[] bytes = digest.digest();
+    StringBuilder sb = new StringBuilder();
+    for (byte b: bytes) {
+      sb.append(Character.forDigit((b >> 4) & 15, 16));
+      sb.append(Character.forDigit(b & 15, 16));
+    }
+    return sb.toString();
+  }
+}
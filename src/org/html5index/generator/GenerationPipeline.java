@@ -0,0 +1,210 @@
+package org.html5index.generator;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.html5index.model.Library;
+import org.html5index.model.Model;
+import org.html5index.model.Type;
+
+/**
+ * Walks a model once and reports it to any number of sinks, so additional output
+ * formats don't need their own walk over the model.
+ * <p>
+ * In parallel mode, each sink runs on its own thread and receives the traversal through
+ * a bounded queue; the order of the calls seen by each sink is the same as in serial
+ * mode. Sinks must not modify the model.
+ */
+public class GenerationPipeline {
+  static final int QUEUE_SIZE = 256;
+
+  private final Model model;
+  private final List<ModelVisitor> sinks = new ArrayList<ModelVisitor>();
+  private boolean parallel;
+
+  public GenerationPipeline(Model model) {
+    this.model = model;
+  }
+
+  public GenerationPipeline add(ModelVisitor sink) {
+    sinks.add(sink);
+    return this;
+  }
+
+  public void setParallel(boolean parallel) {
+    this.parallel = parallel;
+  }
+
+  public void run() throws IOException {
+    if (!parallel || sinks.size() <= 1) {
+      walk(sinks);
+      return;
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(sinks.size());
+    try {
+      List<ModelVisitor> queues = new ArrayList<ModelVisitor>();
+      List<Future<Void>> futures = new ArrayList<Future<Void>>();
+      for (ModelVisitor sink: sinks) {
+        QueuedSink queued = new QueuedSink(sink);
+        queues.add(queued);
+        futures.add(executor.submit(queued));
+      }
+      walk(queues);
+      for (Future<Void> future: futures) {
+        future.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new RuntimeException(e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private void walk(List<ModelVisitor> visitors) throws IOException {
+    for (ModelVisitor visitor: visitors) {
+      visitor.startModel(model);
+    }
+    for (Library lib: model.getLibraries()) {
+      for (ModelVisitor visitor: visitors) {
+        visitor.startLibrary(lib);
+      }
+      for (Type type: lib.getTypes()) {
+        for (ModelVisitor visitor: visitors) {
+          visitor.visitType(type);
+        }
+      }
+      for (ModelVisitor visitor: visitors) {
+        visitor.endLibrary(lib);
+      }
+    }
+    for (ModelVisitor visitor: visitors) {
+      visitor.endModel(model);
+    }
+  }
+
+  /**
+   * Queues the calls for a sink running on another thread. If the sink fails, the
+   * remaining calls up to endModel are dropped, so the walk never blocks on a dead sink.
+   */
+  static class QueuedSink implements ModelVisitor, Callable<Void> {
+    static final int START_MODEL = 0;
+    static final int START_LIBRARY = 1;
+    static final int VISIT_TYPE = 2;
+    static final int END_LIBRARY = 3;
+    static final int END_MODEL = 4;
+
+    static class Call {
+      final int kind;
+      final Object target;
+      Call(int kind, Object target) {
+        this.kind = kind;
+        this.target = target;
+      }
+    }
+
+    final ModelVisitor sink;
+    final BlockingQueue<Call> queue = new ArrayBlockingQueue<Call>(QUEUE_SIZE);
+    volatile boolean failed;
+
+    QueuedSink(ModelVisitor sink) {
+      this.sink = sink;
+    }
+
+    private void put(int kind, Object target) throws IOException {
+      if (failed && kind != END_MODEL) {
+        return;
+      }
+      try {
+        queue.put(new Call(kind, target));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException();
+      }
+    }
+
+    @Override
+    public void startModel(Model model) throws IOException {
+      put(START_MODEL, model);
+    }
+
+    @Override
+    public void startLibrary(Library library) throws IOException {
+      put(START_LIBRARY, library);
+    }
+
+    @Override
+    public void visitType(Type type) throws IOException {
+      put(VISIT_TYPE, type);
+    }
+
+    @Override
+    public void endLibrary(Library library) throws IOException {
+      put(END_LIBRARY, library);
+    }
+
+    @Override
+    public void endModel(Model model) throws IOException {
+      put(END_MODEL, model);
+    }
+
+    @Override
+    public Void call() throws Exception {
+      Exception failure = null;
+      while (true) {
+        Call call = queue.take();
+        if (failure == null) {
+          try {
+            dispatch(call);
+          } catch (Exception e) {
+            failure = e;
+            failed = true;
+          }
+        }
+        if (call.kind == END_MODEL) {
+          break;
+        }
+      }
+      if (failure != null) {
+        throw failure;
+      }
+      return null;
+    }
+
+    private void dispatch(Call call) throws IOException {
+      switch (call.kind) {
+      case START_MODEL:
+        sink.startModel((Model) call.target);
+        break;
+      case START_LIBRARY:
+        sink.startLibrary((Library) call.target);
+        break;
+      case VISIT_TYPE:
+        sink.visitType((Type) call.target);
+        break;
+      case END_LIBRARY:
+        sink.endLibrary((Library) call.target);
+        break;
+      default:
+        sink.endModel((Model) call.target);
+      }
+    }
+  }
+}
@@ -1,19 +1,33 @@
 package org.html5index.generator;
 
 import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.html5index.docscan.DefaultModelReader;
+import org.html5index.docscan.Html5SpecScan;
 import org.html5index.model.Artifact;
 import org.html5index.model.DocumentationProvider.Category;
 import org.html5index.model.Library;
@@ -25,12 +39,99 @@ import org.html5index.model.Property;
 import org.html5index.model.Type;
 import org.html5index.util.HtmlWriter;
 
-public class HtmlGenerator implements Runnable {
+public class HtmlGenerator implements Runnable, ModelVisitor {
+  /** Maps page names to the fingerprints of the pages written by the last run. */
+  static final String MANIFEST = "gen/.manifest";
+  /** Part of all type page fingerprints; change when writeType output changes. */
+  static final int FINGERPRINT_VERSION = 1;
+
+  /** Pages are rendered to memory and written to disk when closed. */
+  static class PageWriter extends HtmlWriter {
+    final String name;
+    final ByteArrayOutputStream buffer;
+
+    PageWriter(String name, ByteArrayOutputStream buffer) throws IOException {
+      super(new BufferedWriter(new OutputStreamWriter(buffer, "utf-8")));
+      this.name = name;
+      this.buffer = buffer;
+    }
+  }
 
   Model model;
-  
-  static HtmlWriter createWriter(String name) throws IOException {
-    HtmlWriter writer = new HtmlWriter(new BufferedWriter(new OutputStreamWriter(new FileOutputStream("gen/"+ name +".html"), "utf-8")));
+  static final String GLOBAL_INDEX = "Global Index";
+  /** Global index shards in sharded mode: A to Z, and one for all other initials. */
+  static final String[] SHARD_NAMES = new String[27];
+  static {
+    for (int i = 0; i < 26; i++) {
+      SHARD_NAMES[i] = String.valueOf((char) ('A' + i));
+    }
+    SHARD_NAMES[26] = "Other";
+  }
+
+  private boolean incremental;
+  private boolean shardedIndex;
+  private int parallelism = 1;
+  private final Properties previousManifest = new Properties();
+  private final Properties manifest = new Properties();
+  final AtomicInteger pagesWritten = new AtomicInteger();
+  final AtomicInteger pagesUnchanged = new AtomicInteger();
+  /** Types listed in an index, in order of first listing; their pages are written by writeTypes. */
+  private final Set<Type> plannedTypes = new LinkedHashSet<Type>();
+  /** Types whose pages have been written. */
+  private final Set<Type> writtenTypes = new HashSet<Type>();
+  // State of the current model walk.
+  private HtmlWriter librariesWriter;
+  private final List<Type> libraryTypes = new ArrayList<Type>();
+  private final TreeSet<Type> allTypes = new TreeSet<Type>();
+  private final TreeSet<Artifact> globalIndex = new TreeSet<Artifact>();
+
+  HtmlWriter openPage(String name) throws IOException {
+    return new PageWriter(name, new ByteArrayOutputStream());
+  }
+
+  /**
+   * Writes the page unless it is unchanged since the last run in incremental mode.
+   * If the fingerprint is null, the hash of the page content is used.
+   */
+  void closePage(HtmlWriter writer, String fingerprint) throws IOException {
+    PageWriter page = (PageWriter) writer;
+    page.close();
+    byte[] content = page.buffer.toByteArray();
+    if (fingerprint == null) {
+      fingerprint = new Fingerprint().add(content).toString();
+    }
+    if (isUnchanged(page.name, fingerprint)) {
+      return;
+    }
+    FileOutputStream fos = new FileOutputStream(getPageFile(page.name));
+    try {
+      fos.write(content);
+    } finally {
+      fos.close();
+    }
+    pagesWritten.incrementAndGet();
+  }
+
+  /**
+   * Records the fingerprint of the given page and returns true if the page can be skipped
+   * because it was written with the same fingerprint by the last run.
+   */
+  boolean isUnchanged(String name, String fingerprint) {
+    manifest.setProperty(name, fingerprint);
+    if (incremental && fingerprint.equals(previousManifest.getProperty(name)) &&
+        getPageFile(name).exists()) {
+      pagesUnchanged.incrementAndGet();
+      return true;
+    }
+    return false;
+  }
+
+  static File getPageFile(String name) {
+    return new File("gen/" + name + ".html");
+  }
+
+  HtmlWriter createWriter(String name) throws IOException {
+    HtmlWriter writer = openPage(name);
     writer.markup("<html><head><title>");
     writer.text(name);
     writer.markup("</title>\n");
@@ -40,50 +141,215 @@ public class HtmlGenerator implements Runnable {
     return writer;
   }
   
-  static void closeWriter(HtmlWriter writer) throws IOException {
+  void closeWriter(HtmlWriter writer) throws IOException {
+    closeWriter(writer, null);
+  }
+
+  void closeWriter(HtmlWriter writer, String fingerprint) throws IOException {
     writer.markup("</body></html>\n");
-    writer.close();
+    closePage(writer, fingerprint);
   }
   
   public HtmlGenerator(Model model) {
 	this.model = model;
   }
 
+  /**
+   * In incremental mode, pages that are unchanged since the last run are not written
+   * again and pages written by the last run that no longer exist are deleted. Type
+   * pages are compared by a fingerprint of everything shown on the page, so unchanged
+   * type pages are not rendered at all; other pages are compared by content.
+   */
+  public void setIncremental(boolean incremental) {
+    this.incremental = incremental;
+  }
+
+  /**
+   * If set, the global index is split into one page per initial letter, and
+   * Global Index.html only links to these pages.
+   */
+  public void setShardedIndex(boolean shardedIndex) {
+    this.shardedIndex = shardedIndex;
+  }
+
+  /**
+   * Sets the number of threads used to render type pages. Type pages only read the
+   * model, so they can be rendered independently; the output does not depend on
+   * the parallelism.
+   */
+  public void setParallelism(int parallelism) {
+    this.parallelism = parallelism;
+  }
+
   public void run() {
     try {
-      writeIndex();
-      writeAbout();
-      writeModel();
-      writeGlobalIndex();
-    
-      HtmlWriter.copyFile("res/static/favicon.ico", "gen/favicon.ico");
-      HtmlWriter.copyFile("res/static/style.css", "gen/style.css");
+      new GenerationPipeline(model).add(this).run();
     } catch(IOException e) {
       throw new RuntimeException(e);
     }
   }
-  
-  public void writeModel() throws IOException {
-    HtmlWriter writer = createWriter("Libraries");
 
-    writer.markup("<h3><a href='All Types.html' target='lib'>Libraries</a></h3>\n");
-    
-    writer.markup("\n<ul class='plain'>\n");
-    for (Library lib: model.getLibraries()) {
-      writer.markup("<li><a href='").text(lib.getName() + ".html").markup("' target='lib'>");
-      writer.text(lib.getName());
-      writer.markup("</a></li>\n");
-      writeLibrary(lib);
+  @Override
+  public void startModel(Model model) throws IOException {
+    // Start from scratch if the generator is run again.
+    plannedTypes.clear();
+    writtenTypes.clear();
+    previousManifest.clear();
+    manifest.clear();
+    pagesWritten.set(0);
+    pagesUnchanged.set(0);
+
+    new File("gen").mkdir();
+    readManifest();
+    writeIndex();
+    writeAbout();
+
+    librariesWriter = openLibraries();
+  }
+
+  @Override
+  public void startLibrary(Library lib) throws IOException {
+    writeLibrariesEntry(librariesWriter, lib);
+    globalIndex.add(lib);
+  }
+
+  @Override
+  public void visitType(Type type) throws IOException {
+    libraryTypes.add(type);
+    if (type.getKind() != Type.Kind.PARTIAL) {
+      allTypes.add(type);
+      globalIndex.add(type);
+      globalIndex.addAll(type.getOwnOperations());
+      globalIndex.addAll(type.getOwnProperties());
+    }
+  }
+
+  @Override
+  public void endLibrary(Library lib) throws IOException {
+    writeLibrary(lib, libraryTypes);
+    libraryTypes.clear();
+  }
+
+  @Override
+  public void endModel(Model model) throws IOException {
+    closeLibraries(librariesWriter);
+    librariesWriter = null;
+
+    writeAllTypesIndex(allTypes);
+    writeTypes();
+    writeGlobalIndex(globalIndex);
+    writeSearchIndex(globalIndex);
+    allTypes.clear();
+    globalIndex.clear();
+
+    copyStatic("favicon.ico");
+    copyStatic("style.css");
+    copyStatic("search.js");
+    writeManifest();
+  }
+
+  void readManifest() throws IOException {
+    File file = new File(MANIFEST);
+    if (incremental && file.exists()) {
+      FileInputStream fis = new FileInputStream(file);
+      try {
+        previousManifest.load(fis);
+      } finally {
+        fis.close();
+      }
+    }
+  }
+
+  void writeManifest() throws IOException {
+    int deleted = 0;
+    if (incremental) {
+      for (String name: previousManifest.stringPropertyNames()) {
+        if (manifest.getProperty(name) == null && getPageFile(name).delete()) {
+          deleted++;
+        }
+      }
+    }
+    FileOutputStream fos = new FileOutputStream(MANIFEST);
+    try {
+      manifest.store(fos, "Generated pages; used for incremental generation");
+    } finally {
+      fos.close();
+    }
+    System.out.println("Pages written: " + pagesWritten + " unchanged: " + pagesUnchanged + 
+        " deleted: " + deleted);
+  }
+
+  void copyStatic(String name) throws IOException {
+    File from = new File("res/static/" + name);
+    File to = new File("gen/" + name);
+    if (incremental && to.exists() && Arrays.equals(readFile(from), readFile(to))) {
+      return;
+    }
+    HtmlWriter.copyFile(from.getPath(), to.getPath());
+  }
+
+  static byte[] readFile(File file) throws IOException {
+    DataInputStream dis = new DataInputStream(new FileInputStream(file));
+    try {
+      byte[] buf = new byte[(int) file.length()];
+      dis.readFully(buf);
+      return buf;
+    } finally {
+      dis.close();
+    }
+  }
+  
+  /**
+   * Writes the pages of all types that were listed in an index so far. Each page is
+   * written once, even if the type is listed in several indices.
+   */
+  public void writeTypes() throws IOException {
+    List<Type> types = new ArrayList<Type>();
+    for (Type type: plannedTypes) {
+      if (writtenTypes.add(type)) {
+        types.add(type);
+      }
+    }
+    plannedTypes.clear();
+    if (parallelism <= 1 || types.size() <= 1) {
+      for (Type type: types) {
+        writeType(type);
+      }
+      return;
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+    try {
+      List<Future<Void>> futures = new ArrayList<Future<Void>>();
+      for (final Type type: types) {
+        futures.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws IOException {
+            writeType(type);
+            return null;
+          }
+        }));
+      }
+      for (Future<Void> future: futures) {
+        future.get();
+      }
+    } catch (InterruptedException e) {
+      throw new RuntimeException(e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new RuntimeException(e.getCause());
+    } finally {
+      executor.shutdownNow();
     }
-    writer.markup("</ul>\n");
-    closeWriter(writer);
-    
-    writeAllTypesIndex();
   }
   
   public void writeIndex() throws IOException {
     new File("gen").mkdir();
-    HtmlWriter writer = new HtmlWriter(new OutputStreamWriter(new FileOutputStream("gen/index.html")));
+    HtmlWriter writer = openPage("index");
     writer.markup("<html><head><title>HTML 5 JavaScript API Index</title>\n");
     writer.markup("<link rel='icon' href='favicon.ico'>");
     writer.markup("</head>");
@@ -147,16 +413,62 @@ public class HtmlGenerator implements Runnable {
   }
   
   
+  /** Writes the Libraries page, listing all libraries of the model. */
+  public void writeLibraries() throws IOException {
+    HtmlWriter writer = openLibraries();
+    for (Library lib: model.getLibraries()) {
+      writeLibrariesEntry(writer, lib);
+    }
+    closeLibraries(writer);
+  }
+
+  HtmlWriter openLibraries() throws IOException {
+    HtmlWriter writer = createWriter("Libraries");
+    writer.markup("<h3><a href='All Types.html' target='lib'>Libraries</a></h3>\n");
+    writer.markup("\n<ul class='plain'>\n");
+    return writer;
+  }
+
+  void writeLibrariesEntry(HtmlWriter writer, Library lib) throws IOException {
+    writer.markup("<li><a href='").text(lib.getName() + ".html").markup("' target='lib'>");
+    writer.text(lib.getName());
+    writer.markup("</a></li>\n");
+  }
+
+  void closeLibraries(HtmlWriter writer) throws IOException {
+    writer.markup("</ul>\n");
+    closeWriter(writer);
+  }
+
+  /**
+   * Writes the index and overview pages of the library and the pages of its types that
+   * have not been written yet.
+   */
   public void writeLibrary(Library lib) throws IOException {
+    writeLibrary(lib, lib.getTypes());
+    writeTypes();
+  }
+
+  /** Writes the index and overview pages of the given library with the given types. */
+  void writeLibrary(Library lib, Collection<Type> libTypes) throws IOException {
+    writeLibraryIndex(lib, libTypes);
+    writeLibraryOverview(lib, libTypes);
+  }
+
+  /** Writes the page listing the given types of the library. */
+  void writeLibraryIndex(Library lib, Collection<Type> libTypes) throws IOException {
     HtmlWriter writer = createWriter(lib.getName());
     writer.markup("<h3><a href='").text(lib.getName() + " - Overview.html").markup("' target='type'>");
     writer.text(lib.getName());
     writer.markup("</a></h3>\n");
 
-    writeTypesIndex(writer, lib.getTypes());
+    writeTypesIndex(writer, libTypes);
     closeWriter(writer);
-    
-    writer = createWriter(lib.getName() + " - Overview");
+  }
+
+  /** Writes the overview page of the library with tutorials, specifications and declared types. */
+  void writeLibraryOverview(Library lib, Collection<Type> libTypes) throws IOException {
+    HtmlWriter writer = createWriter(lib.getName() + " - Overview");
     writeHeader(writer, null);
     writer.markup("<h2>").text(lib.getName()).markup(" Overview</h2>");
     Map<String,String> tutorials = lib.getDocumentationProvider().getTutorials();
@@ -185,7 +497,7 @@ public class HtmlGenerator implements Runnable {
     writer.markup("</ul>");
 
     Map<Type.Kind, List<Type>> kindMap = new TreeMap<Type.Kind, List<Type>>();
-    for (Type type: lib.getTypes()) {
+    for (Type type: libTypes) {
       Type.Kind kind = type.getKind();
       if (listKind(kind) > 0) {
         List<Type> types = kindMap.get(kind);
@@ -232,8 +544,6 @@ public class HtmlGenerator implements Runnable {
   }
   
   public void writeAllTypesIndex() throws IOException {
-    HtmlWriter writer = createWriter("All Types");
-    writer.markup("<h3><a href='about.html' target='type'>All Types</a></h3>");
     TreeSet<Type> all = new TreeSet<Type>();
     for (Library lib: model.getLibraries()) {
       for (Type t: lib.getTypes()) {
@@ -242,6 +552,12 @@ public class HtmlGenerator implements Runnable {
         }
       }
     }
+    writeAllTypesIndex(all);
+  }
+
+  void writeAllTypesIndex(Iterable<Type> all) throws IOException {
+    HtmlWriter writer = createWriter("All Types");
+    writer.markup("<h3><a href='about.html' target='type'>All Types</a></h3>");
     writeTypesIndex(writer, all);
 
     closeWriter(writer);
@@ -255,7 +571,9 @@ public class HtmlGenerator implements Runnable {
       if (listKind(t.getKind()) > 1) {
         types.add(t);
       }
-      writeType(t);
+      if (!writtenTypes.contains(t)) {
+        plannedTypes.add(t);
+      }
     }
 
     /*
@@ -295,8 +613,96 @@ public class HtmlGenerator implements Runnable {
   }
   
   
+  /**
+   * Fingerprint of everything writeType shows for the type, including the names,
+   * kinds and libraries of all linked types.
+   */
+  String fingerprint(Type type) {
+    Fingerprint fp = new Fingerprint();
+    fp.add(FINGERPRINT_VERSION);
+    fp.add(type.getName()).add(type.getKind().ordinal()).add(type.getLibrary().getName());
+    fp.add(type.getDocumentationLink()).add(type.getDocumentationSummary());
+    addLinkedType(fp, type.getSuperType());
+    fp.add(type.getTypes().size());
+    for (Type t: type.getTypes()) {
+      addLinkedType(fp, t);
+    }
+    fp.add(type.getImplementedBy().size());
+    for (Type t: type.getImplementedBy()) {
+      addLinkedType(fp, t);
+    }
+    fp.add(type.getEnumLiterals().size());
+    for (String s: type.getEnumLiterals()) {
+      fp.add(s);
+    }
+    Collection<Property> properties = type.getOwnAndInterfaceProperties();
+    fp.add(properties.size());
+    for (Property p: properties) {
+      addMember(fp, p);
+      fp.add(p.getInitialValue());
+    }
+    fp.add(type.getConstructors().size());
+    for (Operation c: type.getConstructors()) {
+      addMember(fp, c);
+    }
+    Collection<Operation> operations = type.getOwnAndInterfaceOperations();
+    fp.add(operations.size());
+    for (Operation op: operations) {
+      addMember(fp, op);
+    }
+    Collection<Member> references = type.getReferences();
+    fp.add(references.size());
+    for (Member m: references) {
+      Type owner = m.getOwner();
+      addLinkedType(fp, owner);
+      fp.add(m.getName());
+      fp.add(m instanceof Operation ? ((Operation) m).getParameters().size() : -1);
+    }
+    return fp.toString();
+  }
+
+  private void addMember(Fingerprint fp, Member member) {
+    fp.add(member.getName()).add(member.getModifiers());
+    fp.add(member.getDocumentationLink()).add(member.getDocumentationSummary());
+    Type type = member.getType();
+    fp.add(type == member.getOwner() ? 1 : 0);
+    addLinkedType(fp, type);
+    if (member instanceof Operation) {
+      List<Parameter> params = ((Operation) member).getParameters();
+      fp.add(params.size());
+      for (Parameter p: params) {
+        fp.add(p.getName()).add(p.getModifiers());
+        addLinkedType(fp, p.getType());
+      }
+    }
+  }
+
+  /** Adds what writeLinkedType shows for the given type. */
+  private void addLinkedType(Fingerprint fp, Type type) {
+    if (type == null) {
+      fp.add((String) null);
+      return;
+    }
+    fp.add(type.getName()).add(type.getKind().ordinal());
+    fp.add(type.getLibrary() == null ? null : type.getLibrary().getName());
+    if (type.getKind() == Type.Kind.UNION) {
+      fp.add(type.getTypes().size());
+      for (Type t: type.getTypes()) {
+        addLinkedType(fp, t);
+      }
+    } else if (type.getKind() == Type.Kind.ARRAY || type.getKind() == Type.Kind.NULLABLE ||
+        type.getKind() == Type.Kind.SEQUENCE) {
+      addLinkedType(fp, type.getSuperType());
+    }
+  }
+
   public void writeType(Type type) throws IOException {
-    HtmlWriter writer = createWriter(type.getLibrary().getName() + " - " + type.getName());
+    String name = type.getLibrary().getName() + " - " + type.getName();
+    String fingerprint = fingerprint(type);
+    if (isUnchanged(name, fingerprint)) {
+      return;
+    }
+    HtmlWriter writer = createWriter(name);
     
     writeHeader(writer, type.getLibrary());
     
@@ -491,7 +897,7 @@ public class HtmlGenerator implements Runnable {
       }
       writer.markup("</table>");
     }
-    closeWriter(writer);
+    closeWriter(writer, fingerprint);
   }
 
   
@@ -516,6 +922,7 @@ public class HtmlGenerator implements Runnable {
   
   void writeAboutContent(HtmlWriter writer, boolean inFrame) throws IOException {
     writer.markup("<div style='float:right;padding:0 0 10px 10px;text-align:right'><small>");
+    writer.markup("<a href='Search.html'>Search</a>&nbsp;&nbsp;");
     writer.markup("<a href='Global Index.html'>Global Index</a>");
    // if (inFrame) {
    //   writer.markup("&nbsp;&nbsp;&nbsp;<span style='position:relative; top:2px'>");
@@ -726,16 +1133,12 @@ public class HtmlGenerator implements Runnable {
   }
 
   public void writeGlobalIndex() throws IOException {
-    HtmlWriter writer = createWriter("Global Index");
-    writer.markup("<small><a href='index.html' target='_top'>HTML5 JS API Index</a></small>");
-    writer.markup("<h2>Global Index</h2><p><b>");
-    
-    for (char c = 'A'; c <= 'Z'; c++) {
-      writer.markup("<a href='#" + c + "'>" + c + "</a> ");
-    }
-    writer.markup("</b></p>");
+    writeGlobalIndex(collectIndex());
+  }
+
+  /** Returns the libraries, types and their own members, as listed in the global index. */
+  TreeSet<Artifact> collectIndex() {
     TreeSet<Artifact> index = new TreeSet<Artifact>();
-    
     for (Library lib: model.getLibraries()) {
       index.add(lib);
       for (Type t: lib.getTypes()) {
@@ -751,6 +1154,20 @@ public class HtmlGenerator implements Runnable {
         }
       }
     }
+    return index;
+  }
+
+  /**
+   * Writes the global index for the given (sorted) artifacts: a single page, or in sharded
+   * mode one page per initial letter and a landing page.
+   */
+  void writeGlobalIndex(Iterable<Artifact> index) throws IOException {
+    if (shardedIndex) {
+      writeShardedGlobalIndex(index);
+      return;
+    }
+    HtmlWriter writer = createWriter(GLOBAL_INDEX);
+    writeGlobalIndexHeader(writer, "Global Index", null);
     
     char current = ' ';
     boolean first = true;
@@ -767,28 +1184,146 @@ public class HtmlGenerator implements Runnable {
         writer.markup("<ul class='plain'>");
         current = fc;
       }
-      writer.markup("<li>");
-      if (a instanceof Type) {
-        writeLinkedType(writer, (Type) a);
-        writer.text(" (" + a.getLibrary().getName() + ")");
-      } else if (a instanceof Member) {
-        Member member = (Member) a;
-        writeMemberLink(writer, member);
-        writer.text(" (" + member.getOwner().getName() + ")");
-      } else if (a instanceof Library) {
-        writer.markup("<a href='").text(a.getName() + " - Overview.html");
-        writer.text(a.getName());
-        writer.markup("</a>");
+      writeGlobalIndexEntry(writer, a);
+    }
+    writer.markup("</ul>");
+    closeWriter(writer);
+  }
+
+  /**
+   * Writes one global index page per initial letter A-Z, one for all other initials and
+   * a landing page linking to them, so the size of each page only depends on its shard.
+   */
+  void writeShardedGlobalIndex(Iterable<Artifact> index) throws IOException {
+    List<List<Artifact>> shards = new ArrayList<List<Artifact>>();
+    for (int i = 0; i < SHARD_NAMES.length; i++) {
+      shards.add(new ArrayList<Artifact>());
+    }
+    for (Artifact a: index) {
+      char fc = Character.toUpperCase(a.getName().charAt(0));
+      shards.get(fc >= 'A' && fc <= 'Z' ? fc - 'A' : SHARD_NAMES.length - 1).add(a);
+    }
+
+    boolean[] hasShard = new boolean[SHARD_NAMES.length];
+    for (int i = 0; i < SHARD_NAMES.length; i++) {
+      hasShard[i] = shards.get(i).size() > 0;
+    }
+    for (int i = 0; i < SHARD_NAMES.length; i++) {
+      if (!hasShard[i]) {
+        continue;
+      }
+      HtmlWriter writer = createWriter(GLOBAL_INDEX + " - " + SHARD_NAMES[i]);
+      writeGlobalIndexHeader(writer, "Global Index: " + SHARD_NAMES[i], hasShard);
+      writer.markup("<ul class='plain'>");
+      for (Artifact a: shards.get(i)) {
+        writeGlobalIndexEntry(writer, a);
+      }
+      writer.markup("</ul>");
+      closeWriter(writer);
+    }
+
+    HtmlWriter writer = createWriter(GLOBAL_INDEX);
+    writeGlobalIndexHeader(writer, "Global Index", hasShard);
+    writer.markup("<ul class='plain'>");
+    for (int i = 0; i < SHARD_NAMES.length; i++) {
+      if (hasShard[i]) {
+        writer.markup("<li><a href='").text(GLOBAL_INDEX + " - " + SHARD_NAMES[i] + ".html").markup("'>");
+        writer.text(SHARD_NAMES[i]);
+        writer.markup("</a> (").text(String.valueOf(shards.get(i).size())).markup(")</li>");
       }
-      writer.markup("</li>");
     }
     writer.markup("</ul>");
     closeWriter(writer);
   }
+
+  /**
+   * Writes the navigation and title of a global index page. The letters link to anchors
+   * on the same page if shards is null, otherwise to the shard pages that exist.
+   */
+  void writeGlobalIndexHeader(HtmlWriter writer, String title, boolean[] shards) throws IOException {
+    writer.markup("<small><a href='index.html' target='_top'>HTML5 JS API Index</a></small>");
+    writer.markup("<div style='float:right'><small><a href='Search.html'>Search</a></small></div>");
+    writer.markup("<h2>").text(title).markup("</h2><p><b>");
+    if (shards == null) {
+      for (char c = 'A'; c <= 'Z'; c++) {
+        writer.markup("<a href='#" + c + "'>" + c + "</a> ");
+      }
+    } else {
+      for (int i = 0; i < SHARD_NAMES.length; i++) {
+        if (shards[i]) {
+          writer.markup("<a href='").text(GLOBAL_INDEX + " - " + SHARD_NAMES[i] + ".html").markup("'>");
+          writer.text(SHARD_NAMES[i]).markup("</a> ");
+        } else {
+          writer.text(SHARD_NAMES[i]).markup(" ");
+        }
+      }
+    }
+    writer.markup("</b></p>");
+  }
+
+  void writeGlobalIndexEntry(HtmlWriter writer, Artifact a) throws IOException {
+    writer.markup("<li>");
+    if (a instanceof Type) {
+      writeLinkedType(writer, (Type) a);
+      writer.text(" (" + a.getLibrary().getName() + ")");
+    } else if (a instanceof Member) {
+      Member member = (Member) a;
+      writeMemberLink(writer, member);
+      writer.text(" (" + member.getOwner().getName() + ")");
+    } else if (a instanceof Library) {
+      writer.markup("<a href='").text(a.getName() + " - Overview.html");
+      writer.text(a.getName());
+      writer.markup("</a>");
+    }
+    writer.markup("</li>");
+  }
+
+  public void writeSearchIndex() throws IOException {
+    writeSearchIndex(collectIndex());
+  }
+
+  /**
+   * Writes the binary prefix search index for the given artifacts (see SearchIndexWriter)
+   * and the search page using it.
+   */
+  void writeSearchIndex(Iterable<Artifact> index) throws IOException {
+    byte[] data = new SearchIndexWriter().addAll(index).toByteArray();
+    File file = new File("gen/search.idx");
+    if (!incremental || !file.exists() || !Arrays.equals(data, readFile(file))) {
+      FileOutputStream fos = new FileOutputStream(file);
+      try {
+        fos.write(data);
+      } finally {
+        fos.close();
+      }
+    }
+    writeSearchPage();
+  }
+
+  void writeSearchPage() throws IOException {
+    HtmlWriter writer = createWriter("Search");
+    writer.markup("<small><a href='index.html' target='_top'>HTML5 JS API Index</a></small>");
+    writer.markup("<div style='float:right'><small><a href='Global Index.html'>Global Index</a></small></div>");
+    writer.markup("<h2>Search</h2>\n");
+    writer.markup("<p><input id='query' type='search' size='40' autofocus placeholder='Name prefix'></p>\n");
+    writer.markup("<ul id='results' class='plain'></ul>\n");
+    writer.markup("<script src='search.js'></script>\n");
+    closeWriter(writer);
+  }
   
   
   public static void main(String[] args) throws IOException {
+    Html5SpecScan.setStreamingScan(Arrays.asList(args).contains("-streamingscan"));
     HtmlGenerator generator = new HtmlGenerator(DefaultModelReader.readModel());
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("-incremental")) {
+        generator.setIncremental(true);
+      } else if (args[i].equals("-shardedindex")) {
+        generator.setShardedIndex(true);
+      } else if (args[i].equals("-parallelism")) {
+        generator.setParallelism(Integer.parseInt(args[++i]));
+      }
+    }
     generator.run();
   }
 }
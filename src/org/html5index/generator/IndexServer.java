@@ -0,0 +1,269 @@
+package org.html5index.generator;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.html5index.docscan.DefaultModelReader;
+import org.html5index.model.Artifact;
+import org.html5index.model.Library;
+import org.html5index.model.Model;
+import org.html5index.model.Type;
+import org.html5index.util.HtmlWriter;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves the index on a local port, rendering pages on demand from a model that is read
+ * once. Pages are rendered into memory by HtmlGenerator and kept in an LRU cache; each
+ * response carries an ETag of its content, so revalidated pages that did not change are
+ * answered with 304.
+ */
+public class IndexServer implements HttpHandler {
+  static final int DEFAULT_PORT = 8080;
+  static final int DEFAULT_CACHE_SIZE = 500;
+  static final String HTML_CONTENT_TYPE = "text/html; charset=utf-8";
+
+  static class Page {
+    final String contentType;
+    final byte[] content;
+    final String etag;
+
+    Page(String contentType, byte[] content) {
+      this.contentType = contentType;
+      this.content = content;
+      this.etag = "\"" + new Fingerprint().add(content) + "\"";
+    }
+  }
+
+  private final HtmlGenerator generator;
+  /** Pages written by the generator while rendering a request, by page name. */
+  private final Map<String, byte[]> rendered = new LinkedHashMap<String, byte[]>();
+  private final Map<String, Type> typePages = new HashMap<String, Type>();
+  private final Map<String, Library> libraryPages = new HashMap<String, Library>();
+  private final Map<String, Library> overviewPages = new HashMap<String, Library>();
+  /** Rendered pages and resources by path, least recently used first. */
+  private final LinkedHashMap<String, Page> cache;
+  private TreeSet<Artifact> index;
+
+  public IndexServer(Model model, final int cacheSize) {
+    this.generator = new HtmlGenerator(model) {
+      @Override
+      void closePage(HtmlWriter writer, String fingerprint) throws IOException {
+        PageWriter page = (PageWriter) writer;
+        page.close();
+        rendered.put(page.name, page.buffer.toByteArray());
+      }
+    };
+    this.cache = new LinkedHashMap<String, Page>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Page> eldest) {
+        return size() > cacheSize;
+      }
+    };
+    for (Library lib: model.getLibraries()) {
+      libraryPages.put(lib.getName(), lib);
+      overviewPages.put(lib.getName() + " - Overview", lib);
+      for (Type type: lib.getTypes()) {
+        typePages.put(lib.getName() + " - " + type.getName(), type);
+      }
+    }
+  }
+
+  /** See HtmlGenerator.setShardedIndex. */
+  public void setShardedIndex(boolean shardedIndex) {
+    generator.setShardedIndex(shardedIndex);
+  }
+
+  /** Returns the page or resource for the given path, or null if there is none. */
+  synchronized Page getPage(String path) throws IOException {
+    if (path.equals("/")) {
+      path = "/index.html";
+    }
+    Page page = cache.get(path);
+    if (page != null) {
+      return page;
+    }
+    String name = path.substring(1);
+    if (name.endsWith(".html")) {
+      rendered.clear();
+      String pageName = name.substring(0, name.length() - 5);
+      renderPage(pageName);
+      byte[] content = rendered.get(pageName);
+      page = content == null ? null : new Page(HTML_CONTENT_TYPE, content);
+      // Some pages are written together, e.g. the shards of the global index. The
+      // requested page is cached last, so it is not evicted by the others.
+      for (Map.Entry<String, byte[]> entry: rendered.entrySet()) {
+        if (!entry.getKey().equals(pageName)) {
+          cache.put("/" + entry.getKey() + ".html", new Page(HTML_CONTENT_TYPE, entry.getValue()));
+        }
+      }
+      rendered.clear();
+      if (page != null) {
+        cache.put(path, page);
+      }
+      return page;
+    }
+    byte[] content;
+    if (name.equals("search.idx")) {
+      content = new SearchIndexWriter().addAll(getIndex()).toByteArray();
+    } else {
+      File file = new File("res/static/" + name);
+      if (name.contains("..") || !file.isFile()) {
+        return null;
+      }
+      content = HtmlGenerator.readFile(file);
+    }
+    page = new Page(getContentType(name), content);
+    cache.put(path, page);
+    return page;
+  }
+
+  /** Renders the page with the given name into rendered. Does nothing for unknown names. */
+  void renderPage(String name) throws IOException {
+    if (name.equals("index")) {
+      generator.writeIndex();
+    } else if (name.equals("about")) {
+      generator.writeAbout();
+    } else if (name.equals("Libraries")) {
+      generator.writeLibraries();
+    } else if (name.equals("All Types")) {
+      generator.writeAllTypesIndex();
+    } else if (name.equals("Search")) {
+      generator.writeSearchPage();
+    } else if (name.equals(HtmlGenerator.GLOBAL_INDEX) ||
+        name.startsWith(HtmlGenerator.GLOBAL_INDEX + " - ")) {
+      generator.writeGlobalIndex(getIndex());
+    } else if (libraryPages.containsKey(name)) {
+      Library lib = libraryPages.get(name);
+      generator.writeLibraryIndex(lib, lib.getTypes());
+    } else if (overviewPages.containsKey(name)) {
+      Library lib = overviewPages.get(name);
+      generator.writeLibraryOverview(lib, lib.getTypes());
+    } else if (typePages.containsKey(name)) {
+      generator.writeType(typePages.get(name));
+    }
+  }
+
+  private TreeSet<Artifact> getIndex() {
+    if (index == null) {
+      index = generator.collectIndex();
+    }
+    return index;
+  }
+
+  static String getContentType(String name) {
+    if (name.endsWith(".css")) {
+      return "text/css";
+    } else if (name.endsWith(".js")) {
+      return "application/javascript";
+    } else if (name.endsWith(".ico")) {
+      return "image/x-icon";
+    } else if (name.endsWith(".png")) {
+      return "image/png";
+    }
+    return "application/octet-stream";
+  }
+
+  @Override
+  public void handle(HttpExchange exchange) throws IOException {
+    try {
+      String method = exchange.getRequestMethod();
+      if (!method.equals("GET") && !method.equals("HEAD")) {
+        sendText(exchange, 405, "Method not allowed");
+        return;
+      }
+      Page page;
+      try {
+        page = getPage(exchange.getRequestURI().getPath());
+      } catch (RuntimeException e) {
+        e.printStackTrace();
+        sendText(exchange, 500, "Error rendering page: " + e);
+        return;
+      }
+      if (page == null) {
+        sendText(exchange, 404, "Not found");
+        return;
+      }
+      exchange.getResponseHeaders().set("ETag", page.etag);
+      exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+      if (matchesEtag(exchange.getRequestHeaders().get("If-None-Match"), page.etag)) {
+        exchange.sendResponseHeaders(304, -1);
+        return;
+      }
+      exchange.getResponseHeaders().set("Content-Type", page.contentType);
+      if (method.equals("HEAD")) {
+        exchange.sendResponseHeaders(200, -1);
+        return;
+      }
+      exchange.sendResponseHeaders(200, page.content.length);
+      OutputStream os = exchange.getResponseBody();
+      os.write(page.content);
+      os.close();
+    } finally {
+      exchange.close();
+    }
+  }
+
+  /**
+   * Returns true if any of the given If-None-Match header values lists the etag or "*".
+   * Weak validators match as well, as required for If-None-Match.
+   */
+  static boolean matchesEtag(List<String> headers, String etag) {
+    if (headers == null) {
+      return false;
+    }
+    for (String header: headers) {
+      for (String candidate: header.split(",")) {
+        candidate = candidate.trim();
+        if (candidate.startsWith("W/")) {
+          candidate = candidate.substring(2);
+        }
+        if (candidate.equals(etag) || candidate.equals("*")) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  static void sendText(HttpExchange exchange, int status, String text) throws IOException {
+    byte[] content = text.getBytes("utf-8");
+    exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+    exchange.sendResponseHeaders(status, content.length);
+    OutputStream os = exchange.getResponseBody();
+    os.write(content);
+    os.close();
+  }
+
+  public static void main(String[] args) throws IOException {
+    int port = DEFAULT_PORT;
+    int cacheSize = DEFAULT_CACHE_SIZE;
+    boolean shardedIndex = false;
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("-port")) {
+        port = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-cache")) {
+        cacheSize = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-shardedindex")) {
+        shardedIndex = true;
+      }
+    }
+    IndexServer indexServer = new IndexServer(DefaultModelReader.readModel(), cacheSize);
+    indexServer.setShardedIndex(shardedIndex);
+
+    HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+    server.createContext("/", indexServer);
+    server.start();
+    System.out.println("Serving the index on http://localhost:" + port + "/");
+  }
+}
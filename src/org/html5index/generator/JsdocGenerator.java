@@ -5,6 +5,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.util.Arrays;
 import java.util.Collection;
 
@@ -18,9 +19,14 @@ import org.html5index.model.Property;
 import org.html5index.model.Type;
 
 
-public class JsdocGenerator implements Runnable {
+public class JsdocGenerator implements Runnable, ModelVisitor {
   File root = new File("gen/jsdoc");
   Model model;
+  // State of the current model walk.
+  PrintWriter indexWriter;
+  PrintWriter libraryWriter;
+  StringWriter libraryBody;
+  PrintWriter libraryBodyWriter;
   
   // MUST BE SORTED for binary search
   static final String[] NUMBER_TYPES = {
@@ -40,29 +46,67 @@ public class JsdocGenerator implements Runnable {
   
   public void run() {
     try {
-      root.mkdirs();
-      
-      File file = new File(root, "index.html");
-      PrintWriter indexWriter = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
-      
-      indexWriter.println("<html>");
-      indexWriter.println("<head><title>JsDoc Export</title></head>");
-      indexWriter.println("<p><em>Experimental</em> HTML5 API JsDoc export</p>");
-      indexWriter.println("<body>");
-      indexWriter.println("<ul>");
-      
-      for (Library l: model.getLibraries()) {
-        generateLibrary(l, indexWriter);
-      }
-      
-      indexWriter.println("</ul>");
-      indexWriter.println("</body>");
-      indexWriter.println("</html>");
-      indexWriter.close();
-    } catch(Exception e) {
+      new GenerationPipeline(model).add(this).run();
+    } catch(IOException e) {
       throw new RuntimeException(e);
     }
   }
+
+  @Override
+  public void startModel(Model model) throws IOException {
+    root.mkdirs();
+
+    File file = new File(root, "index.html");
+    indexWriter = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+
+    indexWriter.println("<html>");
+    indexWriter.println("<head><title>JsDoc Export</title></head>");
+    indexWriter.println("<p><em>Experimental</em> HTML5 API JsDoc export</p>");
+    indexWriter.println("<body>");
+    indexWriter.println("<ul>");
+  }
+
+  /**
+   * Opens the file of the library. The exports are written directly, the type
+   * definitions following them are buffered until endLibrary.
+   */
+  @Override
+  public void startLibrary(Library library) throws IOException {
+    String name = library.getName() + ".js";
+    indexWriter.println("<li><a href='" + name + "'>" + name + "</a></li>");
+
+    File file = new File(root, name);
+    libraryWriter = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+    libraryBody = new StringWriter();
+    libraryBodyWriter = new PrintWriter(libraryBody);
+  }
+
+  @Override
+  public void visitType(Type type) throws IOException {
+    generateExport(libraryWriter, type);
+    generateType(libraryBodyWriter, type);
+  }
+
+  @Override
+  public void endLibrary(Library library) throws IOException {
+    libraryWriter.println("");
+    libraryWriter.println("");
+    libraryBodyWriter.flush();
+    libraryWriter.write(libraryBody.toString());
+    libraryWriter.close();
+    libraryWriter = null;
+    libraryBody = null;
+    libraryBodyWriter = null;
+  }
+
+  @Override
+  public void endModel(Model model) throws IOException {
+    indexWriter.println("</ul>");
+    indexWriter.println("</body>");
+    indexWriter.println("</html>");
+    indexWriter.close();
+    indexWriter = null;
+  }
   
   public void generateExport(PrintWriter writer, Type type) throws IOException {
     if (type.getKind() == Type.Kind.INTERFACE) {
@@ -19,15 +19,65 @@ import org.html5index.model.Parameter;
 import org.html5index.model.Property;
 import org.html5index.model.Type;
 
-public class JsonGenerator implements Runnable {
+public class JsonGenerator implements Runnable, ModelVisitor {
 	Model model;
 	Writer writer;
 	File root = new File("gen/json");
+	boolean compact;
+	/** The ECMAScript and HTML5 files while walking the model. */
+	JsonFile[] files;
+	Library library;
 	
+	/** State of one JSON file written while walking the model. */
+	class JsonFile {
+		final boolean ecmaOnly;
+		final JsonWriter out;
+		// TODO(haustein) Make this more similar to Window...
+		final ArrayList<Type> globals = new ArrayList<Type>();
+
+		JsonFile(boolean ecmaOnly) throws IOException {
+			this.ecmaOnly = ecmaOnly;
+			String name = ecmaOnly ? "ECMAScript" : "HTML5";
+			File file = new File(root, name + ".json");
+			out = new JsonWriter(new FileOutputStream(file).getChannel(), compact);
+			out.openObject();
+			out.writeString("name", name);
+			out.writeString("description", "Generated " + new Date() + (ecmaOnly ? "" : " from the HTML5 specifications") + " by the html5index.org generator.");
+			out.openObject("definitions");
+		}
+
+		void visitType(Library library, Type type) throws IOException {
+			if (ecmaOnly && !library.getName().equals("ECMAScript")) {
+				return;
+			}
+			if (type.getKind() == Type.Kind.GLOBAL) {
+				globals.add(type);
+			} else {
+				generateType(out, type);
+			}
+		}
+
+		void close() throws IOException {
+			out.closeObject(); // definitions
+
+			out.openObject("globals");
+			generateGlobals(out, globals);
+			out.closeObject();
+
+			out.closeObject();
+			out.close();
+		}
+	}
+
 	public JsonGenerator(Model model) {
 		this.model = model;
 	}
 
+	/** If set, the JSON files are written without any whitespace. */
+	public void setCompact(boolean compact) {
+		this.compact = compact;
+	}
+
 	String getQualifiedName(Type type) {
 		// TODO: Package name?!
 		return type.getName();
@@ -37,7 +87,7 @@ public class JsonGenerator implements Runnable {
 		return "#descriptions/" + getQualifiedName(type);
 	}
 	
-	void writeType(JsonWriter out, Type type) {
+	void writeType(JsonWriter out, Type type) throws IOException {
 		if (type == null) {
 			return;
 		}
@@ -86,103 +136,111 @@ public class JsonGenerator implements Runnable {
 	
 	public void run() {
 		try {
-			root.mkdirs();
-		      
-			File file = new File(root, "index.html");
-			PrintWriter indexWriter = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
-			
-			indexWriter.println("<html>");
-			indexWriter.println("<head><title>JSON Export</title></head>");
-			indexWriter.println("<p><em>Experimental</em> HTML5 API JSON export</p>");
-			indexWriter.println("<body>");
-			indexWriter.println("<ul>");
-			indexWriter.println("<li><a href='ECMAScript.json'>ECMAScript only</a> (use this for experiments and testing)</li>");
-			indexWriter.println("<li><a href='HTML5.json'>HTML 5</a></li>");
-			indexWriter.println("</ul>");
-			indexWriter.println("<p>Please copy the files if you plan to work with them -- ");
-			indexWriter.println("hot-linking will probably overload this server.</p>");
-			indexWriter.println("<p>For a rough description of the format, please refer to ");
-			indexWriter.println("<a href='http://tidej.net/javascript-schema.html'>this link</a>.");
-			indexWriter.println("</body>");
-			indexWriter.println("</html>");
-			indexWriter.close();
-			
-			generateModel(true);
-			generateModel(false);
-			
-		} catch(Exception e) {
+			new GenerationPipeline(model).add(this).run();
+		} catch(IOException e) {
 			throw new RuntimeException(e);
 		}	
 	}
 
-	public void generateModel(boolean ecmaOnly) throws IOException {
-		String name = ecmaOnly ? "ECMAScript" : "HTML5";
-		String fileName = name + ".json";
-		
-		File file = new File(root, fileName);
-		
-		JsonWriter out = new JsonWriter(new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8")));
+	@Override
+	public void startModel(Model model) throws IOException {
+		root.mkdirs();
+		      
+		File file = new File(root, "index.html");
+		PrintWriter indexWriter = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
 		
-		out.writeString("name", name);
-		out.writeString("description", "Generated " + new Date() + (ecmaOnly ? "" : " from the HTML5 specifications") + " by the html5index.org generator.");
-		out.openObject("definitions");
+		indexWriter.println("<html>");
+		indexWriter.println("<head><title>JSON Export</title></head>");
+		indexWriter.println("<p><em>Experimental</em> HTML5 API JSON export</p>");
+		indexWriter.println("<body>");
+		indexWriter.println("<ul>");
+		indexWriter.println("<li><a href='ECMAScript.json'>ECMAScript only</a> (use this for experiments and testing)</li>");
+		indexWriter.println("<li><a href='HTML5.json'>HTML 5</a></li>");
+		indexWriter.println("</ul>");
+		indexWriter.println("<p>Please copy the files if you plan to work with them -- ");
+		indexWriter.println("hot-linking will probably overload this server.</p>");
+		indexWriter.println("<p>For a rough description of the format, please refer to ");
+		indexWriter.println("<a href='http://tidej.net/javascript-schema.html'>this link</a>.");
+		indexWriter.println("</body>");
+		indexWriter.println("</html>");
+		indexWriter.close();
 
-		// TODO(haustein) Make this more similar to Window...
-		ArrayList<Type> globals = new ArrayList<Type>();
-		
+		files = new JsonFile[] {new JsonFile(true), new JsonFile(false)};
+	}
+
+	@Override
+	public void startLibrary(Library library) {
+		this.library = library;
+	}
+
+	@Override
+	public void visitType(Type type) throws IOException {
+		for (JsonFile file: files) {
+			file.visitType(library, type);
+		}
+	}
+
+	@Override
+	public void endLibrary(Library library) {
+		this.library = null;
+	}
+
+	@Override
+	public void endModel(Model model) throws IOException {
+		for (JsonFile file: files) {
+			file.close();
+		}
+		files = null;
+	}
+
+	public void generateModel(boolean ecmaOnly) throws IOException {
+		root.mkdirs();
+		JsonFile file = new JsonFile(ecmaOnly);
 		for (Library library: model.getLibraries()) {
-			if (!ecmaOnly || library.getName().equals("ECMAScript")) {
-				for (Type type: library.getTypes()) {
-					if (type.getKind() == Type.Kind.GLOBAL) {
-						globals.add(type);
-					} else {
-						generateType(out, type);
-					}
-				}
+			for (Type type: library.getTypes()) {
+				file.visitType(library, type);
 			}
 		}
-		out.closeObject(); // definitions
-
-		out.openObject("globals");
-		generateGlobals(out, globals);
-		out.closeObject();
-		
-		out.close();
+		file.close();
 	}
 
-	void generateProperty(JsonWriter out, Property property) {
+	void generateProperty(JsonWriter out, Property property) throws IOException {
 		out.openObject(property.getName());
 		writeType(out, property.getType());
 		out.closeObject();
 	}
 
-	void generateParameterList(JsonWriter out, Operation operation) {
+	void generateParameterList(JsonWriter out, Operation operation) throws IOException {
 		out.openArray("parameter");
 		for (Parameter p: operation.getParameters()) {
 			out.openObject();
 			out.writeString("name", p.getName());
-			out.writeBoolean("optional", p.hasModifier(Parameter.OPTIONAL));
+			if (p.hasModifier(Parameter.OPTIONAL)) {
+				out.writeBoolean("optional", true);
+			}
 			writeType(out, p.getType());
 			out.closeObject();
 		}
 		out.closeArray();
 	}
 
-	void generateConstructor(JsonWriter out, Operation operation) {
+	void generateConstructor(JsonWriter out, Operation operation) throws IOException {
 		out.openObject();
 		generateParameterList(out, operation);
 		out.closeObject();
 	}
 
-	void generateOperation(JsonWriter out, Operation operation) {
+	void generateOperation(JsonWriter out, Operation operation) throws IOException {
 		out.openObject(operation.getName());
-		out.writeBoolean("static", operation.hasModifier(Operation.STATIC));
+		if (operation.hasModifier(Operation.STATIC)) {
+			out.writeBoolean("static", true);
+		}
 		writeType(out, operation.getType());
 		generateParameterList(out, operation);
 		out.closeObject();
 	}
 	
-	void generateGlobals(JsonWriter out, Collection<Type> globals) {
+	void generateGlobals(JsonWriter out, Collection<Type> globals) throws IOException {
 		out.openObject("properties");
 		for (Type g: globals) {
 			for (Property p: g.getOwnAndInterfaceProperties()) {
@@ -200,7 +258,7 @@ public class JsonGenerator implements Runnable {
 		out.closeObject();
 	}
 	
-	void generateInterface(JsonWriter out, Type type) {
+	void generateInterface(JsonWriter out, Type type) throws IOException {
 		out.openObject(getQualifiedName(type));
 
 		out.writeString("type", "object");
@@ -247,7 +305,7 @@ public class JsonGenerator implements Runnable {
 		out.closeObject();  // Interface
 	}
 	
-	void generateType(JsonWriter out, Type type) {
+	void generateType(JsonWriter out, Type type) throws IOException {
 		switch(type.getKind()) {
 		case INTERFACE:
 			generateInterface(out, type);
@@ -259,6 +317,7 @@ public class JsonGenerator implements Runnable {
 	
 	public static void main(String[] args) {
 		JsonGenerator gen = new JsonGenerator(DefaultModelReader.readModel());
+		gen.setCompact(args.length > 0 && args[0].equals("-compact"));
 	    gen.run();
 	}
 }
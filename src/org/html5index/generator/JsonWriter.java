@@ -1,57 +1,279 @@
 package org.html5index.generator;
 
-import java.io.PrintWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 
+/**
+ * Streaming JSON (RFC 8259) writer. Output is encoded as UTF-8 into a buffer that is
+ * written to the channel whenever it is full. Values inside objects are written with a
+ * name, values inside arrays and at the top level without one. Unless the writer is
+ * compact, each value starts on a new line, indented by two spaces per level.
+ */
 public class JsonWriter {
-	PrintWriter out;
-	String indent = " ";
-	
-	JsonWriter(PrintWriter printWriter) {
-		this.out = printWriter;
-		out.println("{");
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final byte[][] INDENTS = new byte[32][];
+	private static final byte[] HEX = "0123456789abcdef".getBytes();
+
+	static {
+		for (int i = 0; i < INDENTS.length; i++) {
+			INDENTS[i] = new byte[1 + 2 * i];
+			INDENTS[i][0] = '\n';
+			for (int j = 1; j < INDENTS[i].length; j++) {
+				INDENTS[i][j] = ' ';
+			}
+		}
+	}
+
+	private final WritableByteChannel channel;
+	private final ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+	private final boolean compact;
+	/** Per open container: whether it is an object, and whether it has any values yet. */
+	private boolean[] isObject = new boolean[16];
+	private boolean[] hasValues = new boolean[16];
+	private int depth;
+
+	public JsonWriter(WritableByteChannel channel, boolean compact) {
+		this.channel = channel;
+		this.compact = compact;
+	}
+
+	public JsonWriter openObject() throws IOException {
+		return open(null, true);
+	}
+
+	public JsonWriter openObject(String name) throws IOException {
+		return open(name, true);
+	}
+
+	public JsonWriter closeObject() throws IOException {
+		return close(true);
+	}
+
+	public JsonWriter openArray() throws IOException {
+		return open(null, false);
+	}
+
+	public JsonWriter openArray(String name) throws IOException {
+		return open(name, false);
+	}
+
+	public JsonWriter closeArray() throws IOException {
+		return close(false);
+	}
+
+	public JsonWriter writeString(String value) throws IOException {
+		return writeString(null, value);
+	}
+
+	/** Writes the given string, or null if value is null. */
+	public JsonWriter writeString(String name, String value) throws IOException {
+		startValue(name);
+		if (value == null) {
+			writeAscii("null");
+		} else {
+			writeQuoted(value);
+		}
+		return this;
+	}
+
+	public JsonWriter writeBoolean(String name, boolean value) throws IOException {
+		startValue(name);
+		writeAscii(value ? "true" : "false");
+		return this;
+	}
+
+	public JsonWriter writeNumber(String name, long value) throws IOException {
+		startValue(name);
+		writeAscii(String.valueOf(value));
+		return this;
+	}
+
+	public JsonWriter writeNull(String name) throws IOException {
+		startValue(name);
+		writeAscii("null");
+		return this;
 	}
-	
-	void openObject() {
-		out.println(indent + "{");
-		indent += " ";
+
+	/** Writes any buffered output to the channel. */
+	public void flush() throws IOException {
+		buf.flip();
+		while (buf.hasRemaining()) {
+			channel.write(buf);
+		}
+		buf.clear();
+	}
+
+	/** Flushes and closes the channel. Fails if there are containers left open. */
+	public void close() throws IOException {
+		if (depth != 0) {
+			throw new IllegalStateException("Unclosed JSON " + (isObject[depth - 1] ? "object" : "array"));
+		}
+		if (!compact) {
+			put((byte) '\n');
+		}
+		flush();
+		channel.close();
+	}
+
+	private JsonWriter open(String name, boolean object) throws IOException {
+		startValue(name);
+		put((byte) (object ? '{' : '['));
+		if (depth == isObject.length) {
+			boolean[] newIsObject = new boolean[depth * 2];
+			boolean[] newHasValues = new boolean[depth * 2];
+			System.arraycopy(isObject, 0, newIsObject, 0, depth);
+			System.arraycopy(hasValues, 0, newHasValues, 0, depth);
+			isObject = newIsObject;
+			hasValues = newHasValues;
+		}
+		isObject[depth] = object;
+		hasValues[depth] = false;
+		depth++;
+		return this;
+	}
+
+	private JsonWriter close(boolean object) throws IOException {
+		if (depth == 0 || isObject[depth - 1] != object) {
+			throw new IllegalStateException("No JSON " + (object ? "object" : "array") + " to close");
+		}
+		depth--;
+		if (hasValues[depth]) {
+			newLine();
+		}
+		put((byte) (object ? '}' : ']'));
+		return this;
+	}
+
+	/** Writes the separator, line break and (inside objects) the name for the next value. */
+	private void startValue(String name) throws IOException {
+		if (depth > 0) {
+			if (isObject[depth - 1] != (name != null)) {
+				throw new IllegalStateException(name == null ? "Values in JSON objects need a name"
+						: "Values in JSON arrays can't have a name: " + name);
+			}
+			if (hasValues[depth - 1]) {
+				put((byte) ',');
+			}
+			hasValues[depth - 1] = true;
+			newLine();
+			if (name != null) {
+				writeQuoted(name);
+				put((byte) ':');
+				if (!compact) {
+					put((byte) ' ');
+				}
+			}
+		} else if (name != null) {
+			throw new IllegalStateException("Top level JSON values can't have a name: " + name);
+		}
 	}
-	
-	void openObject(String name) {
-		out.println(indent + "'" + name + "': {");
-		indent += " ";
+
+	private void newLine() throws IOException {
+		if (compact) {
+			return;
+		}
+		if (depth < INDENTS.length) {
+			put(INDENTS[depth]);
+		} else {
+			put((byte) '\n');
+			for (int i = 0; i < depth; i++) {
+				put((byte) ' ');
+				put((byte) ' ');
+			}
+		}
 	}
-	
-	void closeObject() {
-		indent = indent.substring(0, indent.length() - 1);
-		out.println(indent + "},");
+
+	private void writeQuoted(String s) throws IOException {
+		put((byte) '"');
+		int len = s.length();
+		for (int i = 0; i < len; i++) {
+			char c = s.charAt(i);
+			if (c >= 0x20 && c < 0x7f) {
+				if (c == '"' || c == '\\') {
+					put((byte) '\\');
+				}
+				put((byte) c);
+			} else if (c < 0x20) {
+				switch (c) {
+				case '\n':
+					writeAscii("\\n");
+					break;
+				case '\r':
+					writeAscii("\\r");
+					break;
+				case '\t':
+					writeAscii("\\t");
+					break;
+				case '\b':
+					writeAscii("\\b");
+					break;
+				case '\f':
+					writeAscii("\\f");
+					break;
+				default:
+					writeUnicodeEscape(c);
+				}
+			} else if (c == 0x7f || c == 0x2028 || c == 0x2029) {
+				// DEL is escaped for readability; U+2028 and U+2029 are not valid in JavaScript
+				// string literals.
+				writeUnicodeEscape(c);
+			} else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(s.charAt(i + 1))) {
+				writeUtf8(Character.toCodePoint(c, s.charAt(++i)));
+			} else if (Character.isSurrogate(c)) {
+				// Unpaired surrogates can't be encoded in UTF-8.
+				writeUnicodeEscape(c);
+			} else {
+				writeUtf8(c);
+			}
+		}
+		put((byte) '"');
 	}
-	
-	void writeString(String value) {
-		out.println(indent + "'" + value + "',");
+
+	private void writeUnicodeEscape(char c) throws IOException {
+		ensure(6);
+		buf.put((byte) '\\').put((byte) 'u');
+		buf.put(HEX[(c >> 12) & 15]).put(HEX[(c >> 8) & 15]).put(HEX[(c >> 4) & 15]).put(HEX[c & 15]);
 	}
 
-	void writeString(String name, String value) {
-		out.println(indent + "'" + name + "': '" + value + "',");
+	private void writeUtf8(int codePoint) throws IOException {
+		ensure(4);
+		if (codePoint < 0x800) {
+			buf.put((byte) (0xc0 | (codePoint >> 6)));
+		} else {
+			if (codePoint < 0x10000) {
+				buf.put((byte) (0xe0 | (codePoint >> 12)));
+			} else {
+				buf.put((byte) (0xf0 | (codePoint >> 18)));
+				buf.put((byte) (0x80 | ((codePoint >> 12) & 0x3f)));
+			}
+			buf.put((byte) (0x80 | ((codePoint >> 6) & 0x3f)));
+		}
+		buf.put((byte) (0x80 | (codePoint & 0x3f)));
 	}
-	
-	void writeBoolean(String name, boolean value) {
-		if (value) {
-			out.println(indent + "'" + name + "': true,");
+
+	private void writeAscii(String s) throws IOException {
+		ensure(s.length());
+		for (int i = 0; i < s.length(); i++) {
+			buf.put((byte) s.charAt(i));
 		}
 	}
-	
-	void close() {
-		out.println("}");
-		out.close();
+
+	private void put(byte b) throws IOException {
+		if (!buf.hasRemaining()) {
+			flush();
+		}
+		buf.put(b);
 	}
 
-	public void openArray(String name) {
-		out.println(indent + "'" + name + "' : [");
-		indent += " ";
+	private void put(byte[] bytes) throws IOException {
+		ensure(bytes.length);
+		buf.put(bytes);
 	}
-	
-	public void closeArray() {
-		indent = indent.substring(0, indent.length() - 1);
-		out.println(indent + "],");
+
+	private void ensure(int count) throws IOException {
+		if (buf.remaining() < count) {
+			flush();
+		}
 	}
 }
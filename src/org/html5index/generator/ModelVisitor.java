@@ -0,0 +1,20 @@
+package org.html5index.generator;
+
+import java.io.IOException;
+
+import org.html5index.model.Library;
+import org.html5index.model.Model;
+import org.html5index.model.Type;
+
+/**
+ * Receives one traversal of a model from a GenerationPipeline: startModel, then for each
+ * library startLibrary, visitType for each type of the library and endLibrary, and
+ * finally endModel.
+ */
+public interface ModelVisitor {
+  void startModel(Model model) throws IOException;
+  void startLibrary(Library library) throws IOException;
+  void visitType(Type type) throws IOException;
+  void endLibrary(Library library) throws IOException;
+  void endModel(Model model) throws IOException;
+}
@@ -0,0 +1,164 @@
+package org.html5index.generator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.html5index.model.Artifact;
+import org.html5index.model.Library;
+import org.html5index.model.Member;
+import org.html5index.model.Operation;
+import org.html5index.model.Type;
+
+/**
+ * Builds the binary index used by search.js for prefix search over the global index.
+ * <p>
+ * Entries are sorted by their lower case name and stored front coded in blocks of
+ * BLOCK_SIZE entries; the first name of each block is stored in full, so a lookup is a
+ * binary search over the blocks followed by a scan of a few entries. Library and owner
+ * names are stored once in a string table. All numbers are big endian; lengths and
+ * indices inside the blocks are unsigned LEB128 varints.
+ * <pre>
+ * int magic, int version, int entryCount, int blockSize, int stringCount
+ * stringCount x (varint length, UTF-8 bytes)
+ * blockCount x int offset of the block, relative to the start of the first block
+ * blocks: per entry varint shared prefix length, varint suffix length, UTF-8 suffix,
+ *   byte kind, varint library string, for members also varint owner string
+ * </pre>
+ * Links are derived from the names the same way as in the generated pages.
+ */
+public class SearchIndexWriter {
+  static final int MAGIC = 0x48355358;
+  static final int VERSION = 1;
+  static final int BLOCK_SIZE = 16;
+
+  static final int KIND_LIBRARY = 0;
+  static final int KIND_TYPE = 1;
+  static final int KIND_OPERATION = 2;
+  static final int KIND_PROPERTY = 3;
+  /** Added to KIND_OPERATION for operations with parameters. */
+  static final int HAS_PARAMETERS = 4;
+
+  static class Entry {
+    final String key;
+    final byte[] name;
+    final Artifact artifact;
+
+    Entry(Artifact artifact) throws IOException {
+      this.artifact = artifact;
+      this.key = artifact.getName().toLowerCase(Locale.ROOT);
+      this.name = artifact.getName().getBytes("UTF-8");
+    }
+  }
+
+  private final List<Entry> entries = new ArrayList<Entry>();
+  private final List<String> strings = new ArrayList<String>();
+  private final Map<String, Integer> stringIndex = new HashMap<String, Integer>();
+
+  /** Adds the given artifacts; libraries, types and members are supported. */
+  public SearchIndexWriter addAll(Iterable<? extends Artifact> artifacts) throws IOException {
+    for (Artifact a: artifacts) {
+      entries.add(new Entry(a));
+    }
+    return this;
+  }
+
+  public byte[] toByteArray() throws IOException {
+    // Stable, so entries with the same name keep the order of the global index.
+    Collections.sort(entries, new Comparator<Entry>() {
+      @Override
+      public int compare(Entry a, Entry b) {
+        return a.key.compareTo(b.key);
+      }
+    });
+
+    ByteArrayOutputStream blockBytes = new ByteArrayOutputStream();
+    DataOutputStream blocks = new DataOutputStream(blockBytes);
+    int blockCount = (entries.size() + BLOCK_SIZE - 1) / BLOCK_SIZE;
+    int[] blockOffsets = new int[blockCount];
+    byte[] previous = null;
+    for (int i = 0; i < entries.size(); i++) {
+      Entry entry = entries.get(i);
+      int shared = 0;
+      if (i % BLOCK_SIZE == 0) {
+        blockOffsets[i / BLOCK_SIZE] = blocks.size();
+      } else {
+        int max = Math.min(previous.length, entry.name.length);
+        while (shared < max && previous[shared] == entry.name[shared]) {
+          shared++;
+        }
+      }
+      writeVarint(blocks, shared);
+      writeVarint(blocks, entry.name.length - shared);
+      blocks.write(entry.name, shared, entry.name.length - shared);
+      writeTarget(blocks, entry.artifact);
+      previous = entry.name;
+    }
+
+    ByteArrayOutputStream result = new ByteArrayOutputStream(blocks.size() + 16 * strings.size());
+    DataOutputStream out = new DataOutputStream(result);
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    out.writeInt(entries.size());
+    out.writeInt(BLOCK_SIZE);
+    out.writeInt(strings.size());
+    for (String s: strings) {
+      byte[] bytes = s.getBytes("UTF-8");
+      writeVarint(out, bytes.length);
+      out.write(bytes);
+    }
+    for (int offset: blockOffsets) {
+      out.writeInt(offset);
+    }
+    blockBytes.writeTo(out);
+    out.flush();
+    return result.toByteArray();
+  }
+
+  private void writeTarget(DataOutputStream out, Artifact a) throws IOException {
+    if (a instanceof Library) {
+      out.writeByte(KIND_LIBRARY);
+      writeVarint(out, getStringIndex(a.getName()));
+    } else if (a instanceof Type) {
+      out.writeByte(KIND_TYPE);
+      writeVarint(out, getStringIndex(a.getLibrary().getName()));
+    } else if (a instanceof Member) {
+      Type owner = ((Member) a).getOwner();
+      if (a instanceof Operation) {
+        out.writeByte(KIND_OPERATION +
+            (((Operation) a).getParameters().size() == 0 ? 0 : HAS_PARAMETERS));
+      } else {
+        out.writeByte(KIND_PROPERTY);
+      }
+      writeVarint(out, getStringIndex(owner.getLibrary().getName()));
+      writeVarint(out, getStringIndex(owner.getName()));
+    } else {
+      throw new IllegalArgumentException("Unsupported artifact: " + a);
+    }
+  }
+
+  private int getStringIndex(String s) {
+    Integer index = stringIndex.get(s);
+    if (index == null) {
+      index = strings.size();
+      strings.add(s);
+      stringIndex.put(s, index);
+    }
+    return index;
+  }
+
+  static void writeVarint(DataOutputStream out, int value) throws IOException {
+    while ((value & ~0x7f) != 0) {
+      out.writeByte((value & 0x7f) | 0x80);
+      value >>>= 7;
+    }
+    out.writeByte(value);
+  }
+}
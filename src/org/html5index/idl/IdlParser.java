@@ -14,6 +14,7 @@ import org.html5index.model.Parameter;
 import org.html5index.model.Property;
 import org.html5index.model.Type;
 import org.html5index.model.Type.Kind;
+import org.html5index.util.SymbolTable;
 import org.html5index.util.Tokenizer;
 
 
@@ -69,17 +70,123 @@ public class IdlParser {
     }
   };
 
-  
+
+  // Keyword codes, as set in Tokenizer.keyword. The code is the position in KEYWORDS + 1.
+  static final int ATTRIBUTE = 1;
+  static final int CALLBACK = 2;
+  static final int CLASS = 3;
+  static final int CONST = 4;
+  static final int CREATOR = 5;
+  static final int DELETER = 6;
+  static final int DICTIONARY = 7;
+  static final int ENUM = 8;
+  static final int EXCEPTION = 9;
+  static final int EXTENDS = 10;
+  static final int GETTER = 11;
+  static final int IMPLEMENTS = 12;
+  static final int IN = 13;
+  static final int INOUT = 14;
+  static final int INTERFACE = 15;
+  static final int LEGACYCALLER = 16;
+  static final int LONG = 17;
+  static final int MODULE = 18;
+  static final int OPTIONAL = 19;
+  static final int OR = 20;
+  static final int OUT = 21;
+  static final int PARTIAL = 22;
+  static final int RAISES = 23;
+  static final int READONLY = 24;
+  static final int REQUIRED = 25;
+  static final int SERIALIZER = 26;
+  static final int SETRAISES = 27;
+  static final int SETTER = 28;
+  static final int STATIC = 29;
+  static final int STRINGIFIER = 30;
+  static final int TYPEDEF = 31;
+  static final int UNRESTRICTED = 32;
+  static final int UNSIGNED = 33;
+  static final int VALUETYPE = 34;
+  static final int VOID = 35;
+
+  private static final String[] KEYWORDS = {
+    "attribute",
+    "callback",
+    "class",
+    "const",
+    "creator",
+    "deleter",
+    "dictionary",
+    "enum",
+    "exception",
+    "extends",
+    "getter",
+    "implements",
+    "in",
+    "inout",
+    "interface",
+    "legacycaller",
+    "long",
+    "module",
+    "optional",
+    "or",
+    "out",
+    "partial",
+    "raises",
+    "readonly",
+    "required",
+    "serializer",
+    "setraises",
+    "setter",
+    "static",
+    "stringifier",
+    "typedef",
+    "unrestricted",
+    "unsigned",
+    "valuetype",
+    "void"
+  };
+
+  /**
+   * Per-thread symbol tables with the keywords defined, shared by all parsers of a thread.
+   * Other identifiers are dropped when a table exceeds SymbolTable.MAX_SYMBOLS.
+   */
+  private static final ThreadLocal<SymbolTable> SYMBOLS = new ThreadLocal<SymbolTable>() {
+    @Override
+    protected SymbolTable initialValue() {
+      SymbolTable symbols = new SymbolTable(4096);
+      for (int i = 0; i < KEYWORDS.length; i++) {
+        symbols.define(KEYWORDS[i], i + 1);
+      }
+      return symbols;
+    }
+  };
+
   Tokenizer tokenizer;
   Model model;
   Library lib;
   DocumentationProvider documentationProvider;
   
   public IdlParser(Library lib, String idl) {
+    this(lib, new Tokenizer(idl.toCharArray(), 0, idl.length(), SYMBOLS.get()));
+  }
+
+  /**
+   * Parses the tokens of the given tokenizer, e.g. one replaying the tokens returned
+   * by tokenize.
+   */
+  public IdlParser(Library lib, Tokenizer tokenizer) {
     this.model = lib.getModel();
     this.lib = lib;
     this.documentationProvider = lib.getDocumentationProvider();
-    tokenizer = new Tokenizer(idl);
+    this.tokenizer = tokenizer;
+  }
+
+  /**
+   * Tokenizes buf[start..end) with the keywords of the parser. Does not touch any
+   * model, so it can be called concurrently for different sources.
+   */
+  public static Tokenizer.Recording tokenize(char[] buf, int start, int end) {
+    return new Tokenizer(buf, start, end, SYMBOLS.get()).record();
   }
  
   Type parseNewTypeName(Type.Kind kind) {
@@ -116,18 +223,18 @@ public class IdlParser {
     tokenizer.nextToken();
     Type type;
     type = parseNewTypeName(kind);
-    if (tokenizer.ttype == ':' || tokenizer.sval.equals("extends")) { // DOM spec error?
+    if (tokenizer.ttype == ':' || tokenizer.keyword == EXTENDS) { // DOM spec error?
       tokenizer.nextToken();
       Type superType = parseType();
       type.setSuperType(superType);
     } 
-    if (tokenizer.sval.equals("implements") || tokenizer.sval.equals(",")) {
+    if (tokenizer.keyword == IMPLEMENTS || tokenizer.ttype == ',') {
       do {
         tokenizer.nextToken();
         Type base = parseType();
         type.addType(base);
         base.addImplemenetedBy(type);
-      } while (tokenizer.sval.equals(","));
+      } while (tokenizer.ttype == ',');
     }
     
     if (tokenizer.ttype == ';') {
@@ -140,27 +247,27 @@ public class IdlParser {
       parseOptions();
 
       int modifiers = 0;
-      if ("static".equals(tokenizer.sval)) {
+      if (tokenizer.keyword == STATIC) {
         consumeIdentifier();
         modifiers |= Artifact.STATIC;
       }
-      if ("stringifier".equals(tokenizer.sval)) {
+      if (tokenizer.keyword == STRINGIFIER) {
         consumeIdentifier();
         if (tokenizer.ttype == ';') {
           consume(';');
           continue;
         }
       } 
-      String sval = tokenizer.sval;
-      if ("readonly".equals(sval) || "attribute".equals(sval)) {
+      int keyword = tokenizer.keyword;
+      if (keyword == READONLY || keyword == ATTRIBUTE) {
         Property property = parseProperty(modifiers);
         type.addProperty(property);
         documentationProvider.addDocumentation(property);
-      } else if ("const".equals(sval)) {
+      } else if (keyword == CONST) {
         Property c = parseConst();
         type.addProperty(c);
         documentationProvider.addDocumentation(c);
-      } else if ("serializer".equals(sval)) {
+      } else if (keyword == SERIALIZER) {
         while (tokenizer.nextToken() != '}');  // TODO: Support serializers
         consume('}');
         consume(';');
@@ -198,7 +305,7 @@ public class IdlParser {
   }
 
   private Property parseProperty(int modifiers) {
-    if (tokenizer.sval.equals("readonly")) {
+    if (tokenizer.keyword == READONLY) {
       modifiers |= Artifact.READ_ONLY;
       tokenizer.nextToken();
     }
@@ -208,8 +315,8 @@ public class IdlParser {
     String name = tokenizer.sval;
     consume(Tokenizer.TT_WORD);
     
-    if (tokenizer.sval.equals("setraises") ||  // Used in SVG spec
-        tokenizer.sval.equals("raises")) { 
+    if (tokenizer.keyword == SETRAISES ||  // Used in SVG spec
+        tokenizer.keyword == RAISES) { 
       tokenizer.nextToken();
       consume('(');
       consumeIdentifier(); // exception(?);
@@ -222,16 +329,16 @@ public class IdlParser {
  
   private Operation parseOperation(int modifiers) {
     StringBuilder special = new StringBuilder();
-    while ("getter".equals(tokenizer.sval) || "setter".equals(tokenizer.sval) ||
-        "deleter".equals(tokenizer.sval) || "creator".equals(tokenizer.sval) ||
-        "legacycaller".equals(tokenizer.sval)) {
+    while (tokenizer.keyword == GETTER || tokenizer.keyword == SETTER ||
+        tokenizer.keyword == DELETER || tokenizer.keyword == CREATOR ||
+        tokenizer.keyword == LEGACYCALLER) {
       if (special.length() > 0) {
         special.append(' ');
       }
       special.append(consumeIdentifier());
     }
     Type type;
-    if ("void".equals(tokenizer.sval)) {
+    if (tokenizer.keyword == VOID) {
       type = null;
       consumeIdentifier();
     } else {
@@ -258,25 +365,12 @@ public class IdlParser {
     do {
       tokenizer.nextToken();
       types.add(parseType());
-    } while(tokenizer.sval.equals("or"));
+    } while(tokenizer.keyword == OR);
     consume(')');
     if (tokenizer.ttype == '?') {
       tokenizer.nextToken();
     }
-    StringBuilder sb = new StringBuilder("(");
-    for (Type t: types) {
-      if (sb.length() > 1) {
-        sb.append(" or ");
-      }
-      sb.append(t.getName());
-    }
-    sb.append(')');
-    Type union = new Type(sb.toString());
-    union.setKind(Type.Kind.UNION);
-    for (Type t: types) {
-      union.addType(t);
-    }
-    return union;
+    return model.getUnionType(types);
   }
   
   private Type parseType() {
@@ -286,10 +380,10 @@ public class IdlParser {
     
     String name;
     while (true) {
-      if (tokenizer.sval.equals("unrestricted")) {
+      if (tokenizer.keyword == UNRESTRICTED) {
         consumeIdentifier();
         name = "unrestricted " + consumeIdentifier();
-      } else if (tokenizer.sval.equals("unsigned")) {
+      } else if (tokenizer.keyword == UNSIGNED) {
         consumeIdentifier();
         if (tokenizer.ttype == '?') { // This pain occurs in webrtc...
           name = "unsigned int"; // is this right?
@@ -305,7 +399,7 @@ public class IdlParser {
       tokenizer.nextToken();
     }
     
-    if ("long".equals(tokenizer.sval) && name.endsWith("long")) {
+    if (tokenizer.keyword == LONG && name.endsWith("long")) {
       name += " long";
       consumeIdentifier();
     }
@@ -315,7 +409,7 @@ public class IdlParser {
       consume('<');
       Type baseType = parseType();
       consume('>');
-      type = new Type("sequence<" + baseType.getName() + ">", Type.Kind.SEQUENCE, baseType);
+      type = model.getSequenceType(baseType);
     } else {
       type = lib.getType(name);
       if (type == null) {
@@ -326,17 +420,17 @@ public class IdlParser {
         }
       }
       if (tokenizer.ttype == '?') {
-        type = new Type(type.getName() + "?", Type.Kind.NULLABLE, type);
+        type = model.getNullableType(type);
         tokenizer.nextToken();
       }
       if (tokenizer.ttype == '[') {
         tokenizer.nextToken();
         consume(']');
-        type = new Type(type.getName() + "[]", Type.Kind.ARRAY, type);
+        type = model.getArrayType(type);
       }
     }
     if (tokenizer.ttype == '?') {
-      type = new Type(type.getName() + "?", Type.Kind.NULLABLE, type);
+      type = model.getNullableType(type);
       tokenizer.nextToken();
     }
     return type;
@@ -370,20 +464,20 @@ public class IdlParser {
   
   public void parseModuleBody() {
     while(tokenizer.ttype != Tokenizer.TT_EOF && tokenizer.ttype != '}') {
-      String sval = tokenizer.sval;
-      if (tokenizer.ttype == '[' || "dictionary".equals(sval) || "exception".equals(sval) ||
-          "partial".equals(sval) || "callback".equals(sval) || "interface".equals(sval) || 
-          "class".equals(sval)) {
+      int keyword = tokenizer.keyword;
+      if (tokenizer.ttype == '[' || keyword == DICTIONARY || keyword == EXCEPTION ||
+          keyword == PARTIAL || keyword == CALLBACK || keyword == INTERFACE || 
+          keyword == CLASS) {
         parseClassifier();
-      } else if ("typedef".equals(sval)) {
+      } else if (keyword == TYPEDEF) {
         parseTypedef();
-      } else if ("valuetype".equals(sval)) {
+      } else if (keyword == VALUETYPE) {
         parseValueType();
-      } else if ("module".equals(sval)) {
+      } else if (keyword == MODULE) {
         parseModule();
-      } else if ("const".equals(sval)) {
+      } else if (keyword == CONST) {
         lib.getGlobals().addProperty(parseConst());
-      } else if ("enum".equals(sval)) {
+      } else if (keyword == ENUM) {
         parseEnum();
       } else if (tokenizer.ttype == Tokenizer.TT_WORD) {
         Type target = parseType();
@@ -407,7 +501,7 @@ public class IdlParser {
     } 
     consume('{');
     do {
-      boolean required = "required".equals(tokenizer.sval);
+      boolean required = tokenizer.keyword == REQUIRED;
       if (required) {
         tokenizer.nextToken();
       }
@@ -461,7 +555,7 @@ public class IdlParser {
     consume('{');
     
     while(tokenizer.ttype != '}' && tokenizer.ttype != Tokenizer.TT_EOF) {
-      if (tokenizer.sval.equals("const")) {
+      if (tokenizer.keyword == CONST) {
         Property constant = parseConst();
         type.addProperty(constant);
         documentationProvider.addDocumentation(constant);
@@ -551,12 +645,12 @@ public class IdlParser {
       } while(tokenizer.ttype == ',');
       consume(']');
     }
-    if ("partial".equals(tokenizer.sval)) {
+    if (tokenizer.keyword == PARTIAL) {
       kind = Type.Kind.PARTIAL;
       tokenizer.nextToken();
-    } else if ("callback".equals(tokenizer.sval)) {
+    } else if (tokenizer.keyword == CALLBACK) {
       tokenizer.nextToken();
-      if (!tokenizer.sval.equals("interface")) {
+      if (tokenizer.keyword != INTERFACE) {
         do {
           tokenizer.nextToken();
         } while (tokenizer.ttype != ';');
@@ -566,11 +660,11 @@ public class IdlParser {
       kind = Type.Kind.CALLBACK_INTERFACE;
     }
     Type type = null;
-    if ("interface".equals(tokenizer.sval) || "class".equals(tokenizer.sval)) {
+    if (tokenizer.keyword == INTERFACE || tokenizer.keyword == CLASS) {
       type = parseInterface(kind);
-    } else if ("exception".equals(tokenizer.sval)) {
+    } else if (tokenizer.keyword == EXCEPTION) {
       type = parseException();
-    } else if ("dictionary".equals(tokenizer.sval)) {
+    } else if (tokenizer.keyword == DICTIONARY) {
       parseDictionary();
     } else {
       throw new RuntimeException(
@@ -607,13 +701,13 @@ public class IdlParser {
     while(tokenizer.ttype != ')') {
       parseOptions();
       int modifiers = 0;
-      if ("optional".equals(tokenizer.sval)) {
+      if (tokenizer.keyword == OPTIONAL) {
         modifiers = Parameter.OPTIONAL;
         consumeIdentifier();
       }
-      if ("in".equals(tokenizer.sval) || 
-          "out".equals(tokenizer.sval) ||
-          "inout".equals(tokenizer.sval)) {
+      if (tokenizer.keyword == IN || 
+          tokenizer.keyword == OUT ||
+          tokenizer.keyword == INOUT) {
         consumeIdentifier();
       }
       parseOptions();
@@ -642,7 +736,7 @@ public class IdlParser {
       }
     }
     consume(')');
-    if ("raises".equals(tokenizer.sval)) {
+    if (tokenizer.keyword == RAISES) {
       consumeIdentifier();
       consume('(');
       parseType();
@@ -31,6 +31,15 @@ public abstract class Artifact implements Comparable<Artifact> {
   public String getNameForCompare() {
     return name;
   }
+
+  /**
+   * Returns a part of the name used for comparison without building it: getNameForCompare()
+   * is part 0, followed by " (" part 1, followed by " (" part 2 ")", followed by ")". Parts
+   * that don't exist are null.
+   */
+  String getCollationPart(int index) {
+    return index == 0 ? name : null;
+  }
   
   public String getDocumentationSummary() {
     return documentationSummary;
@@ -77,9 +86,73 @@ public abstract class Artifact implements Comparable<Artifact> {
     return "<a href='#" + (getLibrary().isReadOnly() ? "Library/" : "Project/") + HtmlWriter.htmlEscape(getQualifiedName()) + "'>" + HtmlWriter.htmlEscape(getName()) + "</a>";
   }
 
+  /**
+   * Same result as comparing getNameForCompare() with compareToIgnoreCase, but works on
+   * the collation parts directly.
+   */
   @Override
   public int compareTo(Artifact other) {
-    return getNameForCompare().compareToIgnoreCase(other.getNameForCompare());
+    String a0 = getCollationPart(0);
+    String a1 = getCollationPart(1);
+    String a2 = a1 == null ? null : getCollationPart(2);
+    String b0 = other.getCollationPart(0);
+    String b1 = other.getCollationPart(1);
+    String b2 = b1 == null ? null : other.getCollationPart(2);
+    int len1 = collationLength(a0, a1, a2);
+    int len2 = collationLength(b0, b1, b2);
+    int len = Math.min(len1, len2);
+    for (int i = 0; i < len; i++) {
+      char c1 = collationChar(a0, a1, a2, i);
+      char c2 = collationChar(b0, b1, b2, i);
+      if (c1 != c2) {
+        c1 = Character.toUpperCase(c1);
+        c2 = Character.toUpperCase(c2);
+        if (c1 != c2) {
+          c1 = Character.toLowerCase(c1);
+          c2 = Character.toLowerCase(c2);
+          if (c1 != c2) {
+            return c1 - c2;
+          }
+        }
+      }
+    }
+    return len1 - len2;
+  }
+
+  private static int collationLength(String p0, String p1, String p2) {
+    int len = p0.length();
+    if (p1 != null) {
+      len += 3 + p1.length();
+      if (p2 != null) {
+        len += 3 + p2.length();
+      }
+    }
+    return len;
+  }
+
+  private static char collationChar(String p0, String p1, String p2, int i) {
+    if (i < p0.length()) {
+      return p0.charAt(i);
+    }
+    i -= p0.length();
+    if (i < 2) {
+      return i == 0 ? ' ' : '(';
+    }
+    i -= 2;
+    if (i < p1.length()) {
+      return p1.charAt(i);
+    }
+    i -= p1.length();
+    if (p2 != null) {
+      if (i < 2) {
+        return i == 0 ? ' ' : '(';
+      }
+      i -= 2;
+      if (i < p2.length()) {
+        return p2.charAt(i);
+      }
+    }
+    return ')';
   }
   
   public int getModifiers() {
@@ -30,6 +30,10 @@ public class Library extends Artifact {
     }
     classes.put(type.getName(), type);
     type.owner = this;
+    type.modified();
+    if (model != null) {
+      model.typeAdded(type);
+    }
    }
 
   public DocumentationProvider getDocumentationProvider() {
@@ -59,6 +63,10 @@ public class Library extends Artifact {
 
   public void deleteType(Type type) {
     assert type.owner == this;
+    type.modified();
+    if (model != null) {
+      model.typeRemoved(type);
+    }
     classes.remove(type.getName());
     type.owner = null;
   }
@@ -46,4 +46,12 @@ public abstract class Member extends Artifact {
   public String getNameForCompare() {
     return owner == null ? name : (name + " (" + owner.getNameForCompare() + ")");
   }
+
+  @Override
+  String getCollationPart(int index) {
+    if (index == 0) {
+      return name;
+    }
+    return owner == null ? null : owner.getCollationPart(index - 1);
+  }
 }
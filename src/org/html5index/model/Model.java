@@ -1,6 +1,11 @@
 package org.html5index.model;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
@@ -11,9 +16,20 @@ public class Model {
   Library primitives = new Library("primitives", true);
   // Cache for sequence and array types
   Library hidden = new Library("hidden", true);
+  /** Incremented whenever types are modified; see freeze(). */
+  int version = 1;
+  /** The types of all libraries (excluding primitives and hidden) by name. */
+  private final HashMap<String, List<Type>> typesByName = new HashMap<String, List<Type>>();
+  // Canonical composite types by their base type(s).
+  private final Map<Type, Type> nullableTypes = new IdentityHashMap<Type, Type>();
+  private final Map<Type, Type> arrayTypes = new IdentityHashMap<Type, Type>();
+  private final Map<Type, Type> sequenceTypes = new IdentityHashMap<Type, Type>();
+  private final Map<List<Type>, Type> unionTypes = new HashMap<List<Type>, Type>();
 
   
   public Model() {
+    primitives.model = this;
+    hidden.model = this;
     primitives.addType(new Type("number", Type.Kind.PRIMITIVE));
     primitives.addType(new Type("boolean", Type.Kind.PRIMITIVE));
     primitives.addType(new Type("string", Type.Kind.PRIMITIVE));
@@ -52,33 +68,156 @@ public class Model {
 
 
   public void addLibrary(Library lib) {
-    libraries.put(lib.getName(), lib);
+    Library old = libraries.put(lib.getName(), lib);
+    if (old != null && old != lib) {
+      for (Type type: old.getTypes()) {
+        typeRemoved(type);
+      }
+    }
     lib.model = this;
+    if (old != lib) {
+      for (Type type: lib.getTypes()) {
+        typeAdded(type);
+      }
+    }
+    version++;
   }
  
   
+  /**
+   * Returns the primitive or hidden type with the given name, or else the non-partial
+   * type with the given name from the library with the lowest name.
+   */
   public Type getType(String name) {
     Type result = primitives.getType(name);
     if (result == null) {
       result = hidden.getType(name);
       if (result == null || result.getKind() == Type.Kind.PARTIAL) {
-        for (Library lib: libraries.values()) {
-          result = lib.getType(name);
-          if (result != null && result.getKind() != Type.Kind.PARTIAL) {
-            break;
+        result = null;
+        // Kinds may change after a type was added (a partial type may turn out to be
+        // the declaration), so partial types are filtered here.
+        List<Type> candidates = typesByName.get(name);
+        if (candidates != null) {
+          for (Type type: candidates) {
+            if (type.getKind() != Type.Kind.PARTIAL && (result == null ||
+                type.getLibrary().getName().compareTo(result.getLibrary().getName()) < 0)) {
+              result = type;
+            }
           }
-          result = null;
         }
       }
     }
     return result;
   }
 
+  /** Called by Library.addType for libraries of this model. */
+  void typeAdded(Type type) {
+    Library lib = type.getLibrary();
+    if (lib == primitives || lib == hidden || libraries.get(lib.getName()) != lib) {
+      return;
+    }
+    List<Type> list = typesByName.get(type.getName());
+    if (list == null) {
+      list = new ArrayList<Type>(1);
+      typesByName.put(type.getName(), list);
+    }
+    if (!list.contains(type)) {
+      list.add(type);
+    }
+  }
+
+  /** Called by Library.deleteType for libraries of this model. */
+  void typeRemoved(Type type) {
+    List<Type> list = typesByName.get(type.getName());
+    if (list != null) {
+      list.remove(type);
+      if (list.isEmpty()) {
+        typesByName.remove(type.getName());
+      }
+    }
+  }
+
   public Collection<Library> getLibraries() {
     return libraries.values();
   }
 
 
+  /** Returns the canonical nullable type for the given base type. */
+  public Type getNullableType(Type base) {
+    return getCompositeType(nullableTypes, base, Type.Kind.NULLABLE, base.getName() + "?");
+  }
+
+  /** Returns the canonical array type for the given element type. */
+  public Type getArrayType(Type base) {
+    return getCompositeType(arrayTypes, base, Type.Kind.ARRAY, base.getName() + "[]");
+  }
+
+  /** Returns the canonical sequence type for the given element type. */
+  public Type getSequenceType(Type base) {
+    return getCompositeType(sequenceTypes, base, Type.Kind.SEQUENCE, "sequence<" + base.getName() + ">");
+  }
+
+  private static Type getCompositeType(Map<Type, Type> cache, Type base, Type.Kind kind, String name) {
+    Type type = cache.get(base);
+    if (type == null) {
+      type = new Type(name, kind, base);
+      cache.put(base, type);
+    }
+    return type;
+  }
+
+  /** Returns the canonical union of the given types (in the given order). */
+  public Type getUnionType(List<Type> types) {
+    Type union = unionTypes.get(types);
+    if (union == null) {
+      StringBuilder sb = new StringBuilder("(");
+      for (Type t: types) {
+        if (sb.length() > 1) {
+          sb.append(" or ");
+        }
+        sb.append(t.getName());
+      }
+      sb.append(')');
+      union = new Type(sb.toString());
+      union.setKind(Type.Kind.UNION);
+      for (Type t: types) {
+        union.addType(t);
+      }
+      unionTypes.put(new ArrayList<Type>(types), union);
+    }
+    return union;
+  }
+
+  /**
+   * Makes the given nullable, array, sequence or union type canonical unless there
+   * already is a canonical type for its base type(s). Used when restoring snapshots.
+   */
+  void addCompositeType(Type type) {
+    Map<Type, Type> cache;
+    switch (type.getKind()) {
+    case NULLABLE:
+      cache = nullableTypes;
+      break;
+    case ARRAY:
+      cache = arrayTypes;
+      break;
+    case SEQUENCE:
+      cache = sequenceTypes;
+      break;
+    case UNION:
+      List<Type> key = new ArrayList<Type>(type.getTypes());
+      if (!unionTypes.containsKey(key)) {
+        unionTypes.put(key, type);
+      }
+      return;
+    default:
+      return;
+    }
+    if (type.getSuperType() != null && !cache.containsKey(type.getSuperType())) {
+      cache.put(type.getSuperType(), type);
+    }
+  }
+
   public void addHiddenType(Type type) {
     hidden.addType(type);
   }
@@ -90,7 +229,34 @@ public class Model {
 
 
   public void removeLibrary(Library lib) {
-    libraries.remove(lib.getName());
+    Library removed = libraries.remove(lib.getName());
+    if (removed != null) {
+      for (Type type: removed.getTypes()) {
+        typeRemoved(type);
+      }
+    }
+    version++;
+  }
+
+  /**
+   * Computes the flattened operation and property views of all types once, so
+   * getOwnAndInterfaceOperations() and getOwnAndInterfaceProperties() don't rebuild them
+   * on each call. Any later modification of the model's types discards the frozen views
+   * until freeze() is called again.
+   */
+  public void freeze() {
+    for (Library lib: libraries.values()) {
+      freeze(lib);
+    }
+    freeze(primitives);
+    freeze(hidden);
+  }
+
+  private void freeze(Library lib) {
+    lib.getGlobals().freeze(version);
+    for (Type type: lib.getTypes()) {
+      type.freeze(version);
+    }
   }
 
 
@@ -0,0 +1,527 @@
+package org.html5index.model;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.html5index.model.DocumentationProvider.Category;
+
+/**
+ * Binary snapshot of a model, so the model can be restored without scanning the specs
+ * again. Libraries are restored with a StaticDocumentationProvider holding the title,
+ * category, urls and tutorials of the original provider; the documentation of artifacts
+ * is stored with the artifacts.
+ * <p>
+ * Each snapshot carries a key describing the sources it was built from; read() only
+ * accepts a snapshot with the expected key and format version. The snapshot file is
+ * memory-mapped for reading.
+ * <p>
+ * Layout (all strings are indices into the string pool, -1 for null):
+ * <pre>
+ * int magic, int version, UTF key
+ * int count, followed by count strings (int length, UTF-8 bytes)  (string pool)
+ * int libraryCount, int typeCount, int memberCount
+ * libraryCount x (name, boolean readOnly)  (primitives and hidden first)
+ * typeCount x (byte origin, int library, name, int kind)
+ * memberCount x (byte kind, name)
+ * libraryCount x library details, typeCount x type details, memberCount x member details
+ * </pre>
+ */
+public class ModelSnapshot {
+  static final int MAGIC = 0x48354d53;  // "H5MS"
+  static final int VERSION = 1;
+
+  static final int ORIGIN_NEW = 0;
+  static final int ORIGIN_GLOBALS = 1;
+  static final int ORIGIN_PRIMITIVE = 2;
+
+  static final int PROPERTY = 0;
+  static final int OPERATION = 1;
+
+  /**
+   * Writes a snapshot of the given model with the given key. The file is replaced
+   * atomically where the file system supports it.
+   */
+  public static void write(Model model, String key, File file) throws IOException {
+    Writer writer = new Writer(model);
+    byte[] body = writer.writeBody();
+
+    File dir = file.getAbsoluteFile().getParentFile();
+    if (dir != null) {
+      dir.mkdirs();
+    }
+    File tmp = new File(file.getPath() + ".tmp");
+    DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+    try {
+      dos.writeInt(MAGIC);
+      dos.writeInt(VERSION);
+      dos.writeUTF(key);
+      dos.writeInt(writer.strings.size());
+      for (String s: writer.strings) {
+        byte[] bytes = s.getBytes("utf-8");
+        dos.writeInt(bytes.length);
+        dos.write(bytes);
+      }
+      dos.write(body);
+    } finally {
+      dos.close();
+    }
+    if (!tmp.renameTo(file)) {
+      file.delete();
+      if (!tmp.renameTo(file)) {
+        throw new IOException("Can't rename " + tmp + " to " + file);
+      }
+    }
+  }
+
+  /**
+   * Reads the snapshot in the given file. Returns null if there is no such file or if
+   * it has a different key or format version.
+   */
+  public static Model read(File file, String key) throws IOException {
+    if (!file.exists()) {
+      return null;
+    }
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      FileChannel channel = raf.getChannel();
+      MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      if (buf.capacity() < 8 || buf.getInt() != MAGIC || buf.getInt() != VERSION) {
+        return null;
+      }
+      if (!key.equals(readUtf(buf))) {
+        return null;
+      }
+      return new Reader(buf).read();
+    } catch (BufferUnderflowException e) {
+      throw new IOException("Truncated model snapshot: " + file, e);
+    } catch (IndexOutOfBoundsException e) {
+      throw new IOException("Corrupt model snapshot: " + file, e);
+    } finally {
+      raf.close();
+    }
+  }
+
+  private static String readUtf(MappedByteBuffer buf) throws IOException {
+    byte[] bytes = new byte[buf.getShort() & 0xffff];
+    buf.get(bytes);
+    return new String(bytes, "utf-8");
+  }
+
+  /**
+   * Assigns ids to all libraries, types and members reachable from the model, then
+   * writes them.
+   */
+  static class Writer {
+    final Model model;
+    final List<Library> libraries = new ArrayList<Library>();
+    final List<Type> types = new ArrayList<Type>();
+    final List<Member> members = new ArrayList<Member>();
+    final Map<Library, Integer> libraryIds = new IdentityHashMap<Library, Integer>();
+    final Map<Type, Integer> typeIds = new IdentityHashMap<Type, Integer>();
+    final Map<Member, Integer> memberIds = new IdentityHashMap<Member, Integer>();
+    final List<String> strings = new ArrayList<String>();
+    final Map<String, Integer> stringIds = new HashMap<String, Integer>();
+    DataOutputStream out;
+
+    Writer(Model model) {
+      this.model = model;
+      addLibrary(model.primitives);
+      addLibrary(model.hidden);
+      for (Library lib: model.libraries.values()) {
+        addLibrary(lib);
+      }
+      for (Library lib: libraries) {
+        typeId(lib.getGlobals());
+        for (Type type: lib.getTypes()) {
+          typeId(type);
+        }
+      }
+      // Walk types and members breadth first; ids are assigned on first sight.
+      int typeIndex = 0;
+      int memberIndex = 0;
+      while (typeIndex < types.size() || memberIndex < members.size()) {
+        while (typeIndex < types.size()) {
+          Type type = types.get(typeIndex++);
+          typeId(type.superType);
+          typeIds(type.getTypes());
+          typeIds(type.getImplementedBy());
+          memberIds(type.properties.values());
+          memberIds(type.operations.values());
+          memberIds(type.getConstructors());
+          memberIds(type.referencedBy);
+        }
+        while (memberIndex < members.size()) {
+          Member member = members.get(memberIndex++);
+          typeId(member.type);
+          typeId(member.owner);
+          if (member instanceof Operation) {
+            for (Parameter p: ((Operation) member).getParameters()) {
+              typeId(p.type);
+            }
+          }
+        }
+      }
+    }
+
+    void addLibrary(Library lib) {
+      libraryIds.put(lib, libraries.size());
+      libraries.add(lib);
+    }
+
+    int typeId(Type type) {
+      if (type == null) {
+        return -1;
+      }
+      Integer id = typeIds.get(type);
+      if (id == null) {
+        id = types.size();
+        typeIds.put(type, id);
+        types.add(type);
+      }
+      return id;
+    }
+
+    void typeIds(Collection<Type> list) {
+      for (Type type: list) {
+        typeId(type);
+      }
+    }
+
+    int memberId(Member member) {
+      if (member == null) {
+        return -1;
+      }
+      Integer id = memberIds.get(member);
+      if (id == null) {
+        id = members.size();
+        memberIds.put(member, id);
+        members.add(member);
+      }
+      return id;
+    }
+
+    void memberIds(Collection<? extends Member> list) {
+      for (Member member: list) {
+        memberId(member);
+      }
+    }
+
+    int libraryId(Library lib) {
+      Integer id = lib == null ? null : libraryIds.get(lib);
+      return id == null ? -1 : id;
+    }
+
+    byte[] writeBody() throws IOException {
+      ByteArrayOutputStream baos = new ByteArrayOutputStream();
+      out = new DataOutputStream(baos);
+      out.writeInt(libraries.size());
+      out.writeInt(types.size());
+      out.writeInt(members.size());
+      for (Library lib: libraries) {
+        writeString(lib.getName());
+        out.writeBoolean(lib.isReadOnly());
+      }
+      for (Type type: types) {
+        Library lib = type.getLibrary();
+        if (lib != null && lib.getGlobals() == type && libraryId(lib) != -1) {
+          out.writeByte(ORIGIN_GLOBALS);
+          out.writeInt(libraryId(lib));
+        } else if (lib == model.primitives) {
+          out.writeByte(ORIGIN_PRIMITIVE);
+          out.writeInt(-1);
+        } else {
+          out.writeByte(ORIGIN_NEW);
+          out.writeInt(-1);
+        }
+        writeString(type.getName());
+        out.writeInt(type.getKind().ordinal());
+      }
+      for (Member member: members) {
+        out.writeByte(member instanceof Operation ? OPERATION : PROPERTY);
+        writeString(member.getName());
+      }
+
+      for (Library lib: libraries) {
+        writeArtifact(lib);
+        DocumentationProvider provider = lib.getDocumentationProvider();
+        out.writeBoolean(provider != null);
+        if (provider != null) {
+          writeString(provider.getTitle());
+          out.writeInt(provider.getCategory() == null ? -1 : provider.getCategory().ordinal());
+          List<String[]> urls = new ArrayList<String[]>();
+          for (String[] url: provider.getUrls()) {
+            urls.add(url);
+          }
+          out.writeInt(urls.size());
+          for (String[] url: urls) {
+            writeString(url[0]);
+            writeString(url[1]);
+          }
+          Map<String, String> tutorials = provider.getTutorials();
+          out.writeInt(tutorials.size());
+          for (Map.Entry<String, String> entry: tutorials.entrySet()) {
+            writeString(entry.getKey());
+            writeString(entry.getValue());
+          }
+        }
+        out.writeInt(lib.getTypes().size());
+        for (Type type: lib.getTypes()) {
+          out.writeInt(typeId(type));
+        }
+      }
+      for (Type type: types) {
+        writeArtifact(type);
+        out.writeInt(libraryId(type.getLibrary()));
+        out.writeInt(typeId(type.superType));
+        writeTypes(type.getTypes());
+        writeTypes(type.getImplementedBy());
+        out.writeInt(type.getEnumLiterals().size());
+        for (String literal: type.getEnumLiterals()) {
+          writeString(literal);
+        }
+        writeMembers(type.properties.values());
+        writeMembers(type.operations.values());
+        writeMembers(type.getConstructors());
+        writeMembers(type.referencedBy);
+      }
+      for (Member member: members) {
+        writeArtifact(member);
+        out.writeInt(typeId(member.type));
+        out.writeInt(typeId(member.owner));
+        if (member instanceof Operation) {
+          Operation operation = (Operation) member;
+          writeString(operation.getBody());
+          out.writeInt(operation.getParameters().size());
+          for (Parameter p: operation.getParameters()) {
+            writeArtifact(p);
+            out.writeInt(typeId(p.type));
+          }
+        } else {
+          writeString(((Property) member).getInitialValue());
+        }
+      }
+      out.close();
+      return baos.toByteArray();
+    }
+
+    void writeArtifact(Artifact artifact) throws IOException {
+      writeString(artifact.name);
+      out.writeInt(artifact.modifiers);
+      writeString(artifact.documentation);
+      writeString(artifact.documentationSummary);
+      writeString(artifact.documentationUrl);
+    }
+
+    void writeTypes(Collection<Type> list) throws IOException {
+      out.writeInt(list.size());
+      for (Type type: list) {
+        out.writeInt(typeId(type));
+      }
+    }
+
+    void writeMembers(Collection<? extends Member> list) throws IOException {
+      out.writeInt(list.size());
+      for (Member member: list) {
+        out.writeInt(memberId(member));
+      }
+    }
+
+    void writeString(String s) throws IOException {
+      if (s == null) {
+        out.writeInt(-1);
+        return;
+      }
+      Integer id = stringIds.get(s);
+      if (id == null) {
+        id = strings.size();
+        stringIds.put(s, id);
+        strings.add(s);
+      }
+      out.writeInt(id);
+    }
+  }
+
+  /**
+   * Creates all objects from the skeleton section first, so the details can refer
+   * to them in any order.
+   */
+  static class Reader {
+    final MappedByteBuffer buf;
+    final Model model = new Model();
+    String[] strings;
+    Library[] libraries;
+    Type[] types;
+    Member[] members;
+
+    Reader(MappedByteBuffer buf) {
+      this.buf = buf;
+    }
+
+    Model read() throws IOException {
+      strings = new String[buf.getInt()];
+      for (int i = 0; i < strings.length; i++) {
+        byte[] bytes = new byte[buf.getInt()];
+        buf.get(bytes);
+        strings[i] = new String(bytes, "utf-8");
+      }
+      libraries = new Library[buf.getInt()];
+      types = new Type[buf.getInt()];
+      members = new Member[buf.getInt()];
+      Type.Kind[] kinds = Type.Kind.values();
+
+      for (int i = 0; i < libraries.length; i++) {
+        String name = readString();
+        boolean readOnly = buf.get() != 0;
+        libraries[i] = i == 0 ? model.primitives : i == 1 ? model.hidden : new Library(name, readOnly);
+      }
+      for (int i = 0; i < types.length; i++) {
+        int origin = buf.get();
+        int lib = buf.getInt();
+        String name = readString();
+        Type.Kind kind = kinds[buf.getInt()];
+        Type type;
+        if (origin == ORIGIN_GLOBALS) {
+          type = libraries[lib].getGlobals();
+        } else if (origin == ORIGIN_PRIMITIVE) {
+          type = model.primitives.getType(name);
+          if (type == null) {
+            throw new IOException("Unknown primitive type in snapshot: " + name);
+          }
+        } else {
+          type = new Type(name, kind);
+        }
+        type.setKind(kind);
+        types[i] = type;
+      }
+      for (int i = 0; i < members.length; i++) {
+        int kind = buf.get();
+        String name = readString();
+        members[i] = kind == OPERATION ? new Operation(0, null, name) : new Property(0, null, name, null);
+      }
+
+      for (Library lib: libraries) {
+        readArtifact(lib);
+        if (buf.get() != 0) {
+          String title = readString();
+          int category = buf.getInt();
+          StaticDocumentationProvider provider = new StaticDocumentationProvider(title,
+              category == -1 ? null : Category.values()[category]);
+          int count = buf.getInt();
+          for (int i = 0; i < count; i++) {
+            String url = readString();
+            provider.addUrl(url, readString());
+          }
+          count = buf.getInt();
+          for (int i = 0; i < count; i++) {
+            String tutorial = readString();
+            provider.addTutorial(tutorial, readString());
+          }
+          lib.setDocumentationProvider(provider);
+        }
+        int count = buf.getInt();
+        for (int i = 0; i < count; i++) {
+          lib.addType(types[buf.getInt()]);
+        }
+      }
+      // References can only be added once all names and owners are in place.
+      int[][] references = new int[types.length][];
+      int typeIndex = 0;
+      for (Type type: types) {
+        readArtifact(type);
+        int owner = buf.getInt();
+        type.owner = owner == -1 ? null : libraries[owner];
+        type.superType = readType();
+        for (int i = buf.getInt(); i > 0; i--) {
+          type.getTypes().add(readType());
+        }
+        for (int i = buf.getInt(); i > 0; i--) {
+          type.getImplementedBy().add(readType());
+        }
+        for (int i = buf.getInt(); i > 0; i--) {
+          type.addEnumLiteral(readString());
+        }
+        for (int i = buf.getInt(); i > 0; i--) {
+          Property property = (Property) members[buf.getInt()];
+          type.properties.put(property.getName(), property);
+        }
+        for (int i = buf.getInt(); i > 0; i--) {
+          Operation operation = (Operation) members[buf.getInt()];
+          type.operations.put(operation.getName(), operation);
+        }
+        for (int i = buf.getInt(); i > 0; i--) {
+          type.getConstructors().add((Operation) members[buf.getInt()]);
+        }
+        int[] refs = new int[buf.getInt()];
+        for (int i = 0; i < refs.length; i++) {
+          refs[i] = buf.getInt();
+        }
+        references[typeIndex++] = refs;
+      }
+      for (Member member: members) {
+        readArtifact(member);
+        member.setType(readType());
+        member.owner = readType();
+        if (member instanceof Operation) {
+          Operation operation = (Operation) member;
+          operation.setBody(readString());
+          for (int i = buf.getInt(); i > 0; i--) {
+            Parameter p = new Parameter(0, null, null);
+            readArtifact(p);
+            p.type = readType();
+            p.owner = operation;
+            operation.getParameters().add(p);
+          }
+        } else {
+          ((Property) member).setInitialValue(readString());
+        }
+      }
+
+      for (int i = 0; i < types.length; i++) {
+        for (int id: references[i]) {
+          types[i].referencedBy.add(members[id]);
+        }
+      }
+      for (int i = 2; i < libraries.length; i++) {
+        model.addLibrary(libraries[i]);
+      }
+      for (Type type: types) {
+        if (type.getLibrary() == null) {
+          model.addCompositeType(type);
+        }
+      }
+      return model;
+    }
+
+    void readArtifact(Artifact artifact) {
+      artifact.name = readString();
+      artifact.modifiers = buf.getInt();
+      artifact.documentation = readString();
+      artifact.documentationSummary = readString();
+      artifact.documentationUrl = readString();
+    }
+
+    Type readType() {
+      int id = buf.getInt();
+      return id == -1 ? null : types[id];
+    }
+
+    String readString() {
+      int id = buf.getInt();
+      return id == -1 ? null : strings[id];
+    }
+  }
+}
@@ -0,0 +1,71 @@
+package org.html5index.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Documentation provider for libraries that are not read from a spec, e.g. IDL
+ * parsed from files. Provides a title, category, urls and tutorials, but no
+ * documentation for individual artifacts.
+ */
+public class StaticDocumentationProvider implements DocumentationProvider {
+  private final String title;
+  private final Category category;
+  private final List<String[]> urls = new ArrayList<String[]>();
+  private final Map<String, String> tutorials = new TreeMap<String, String>();
+
+  public StaticDocumentationProvider(String title, Category category) {
+    this.title = title;
+    this.category = category;
+  }
+
+  public StaticDocumentationProvider addUrl(String url, String title) {
+    urls.add(new String[] {url, title});
+    return this;
+  }
+
+  public StaticDocumentationProvider addTutorial(String title, String url) {
+    tutorials.put(title, url);
+    return this;
+  }
+
+  @Override
+  public String getTitle() {
+    return title;
+  }
+
+  @Override
+  public Category getCategory() {
+    return category;
+  }
+
+  @Override
+  public String getSummary(Artifact artifact) {
+    return null;
+  }
+
+  @Override
+  public String getLink(Artifact artifact) {
+    return null;
+  }
+
+  @Override
+  public Iterable<String[]> getUrls() {
+    return urls;
+  }
+
+  @Override
+  public Map<String, String> getTutorials() {
+    return tutorials;
+  }
+
+  @Override
+  public void addDocumentation(Artifact artifact) {
+  }
+
+  @Override
+  public void readDocumentation(Library lib) {
+  }
+}
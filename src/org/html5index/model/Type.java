@@ -1,8 +1,13 @@
 package org.html5index.model;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
 
@@ -19,15 +24,53 @@ public class Type extends Artifact {
   
   private Kind kind = Kind.NO_INTERFACE_OBJECT;
   // TODO: null the objects and create on demand only?
-  private TreeMap<String,Property> properties = new TreeMap<String,Property>();
-  private TreeMap<String,Operation> operations = new TreeMap<String,Operation>();
-  private TreeSet<Member> referencedBy = new TreeSet<Member>();
+  TreeMap<String,Property> properties = new TreeMap<String,Property>();
+  TreeMap<String,Operation> operations = new TreeMap<String,Operation>();
+  /**
+   * Members referring to this type, in order of addition. Not sorted, as names may still
+   * change while the model is read; see getReferences().
+   */
+  Set<Member> referencedBy = new LinkedHashSet<Member>();
   private List<Operation> constructors = new ArrayList<Operation>();
   Library owner;
   Type superType;
   private List<Type> types = new ArrayList<Type>();
+  /** View of types returned by getTypes(); changes made through it call modified(). */
+  private final List<Type> typesView = new AbstractList<Type>() {
+    @Override
+    public Type get(int index) {
+      return types.get(index);
+    }
+
+    @Override
+    public int size() {
+      return types.size();
+    }
+
+    @Override
+    public Type set(int index, Type type) {
+      modified();
+      return types.set(index, type);
+    }
+
+    @Override
+    public void add(int index, Type type) {
+      modified();
+      types.add(index, type);
+    }
+
+    @Override
+    public Type remove(int index) {
+      modified();
+      return types.remove(index);
+    }
+  };
   private List<Type> implementedBy = new ArrayList<Type>();
   private List<String> enumLiterals = new ArrayList<String>();
+  // Flattened member views computed by Model.freeze(); valid while frozenVersion matches the model.
+  private Operation[] frozenOperations;
+  private Property[] frozenProperties;
+  private int frozenVersion;
   
   public Type(String name, Kind kind) {
     this(name, kind, null);
@@ -56,10 +99,12 @@ public class Type extends Artifact {
   }
 
   public void setKind(Kind kind) {
+    modified();
     this.kind = kind;
   }
   
   public void setSuperType(Type superType) {
+    modified();
     this.superType = superType;
     if (this.kind != Kind.UNION && this.kind != Kind.SEQUENCE && this.kind != Kind.NULLABLE) {
       superType.addImplemenetedBy(this);
@@ -67,6 +112,7 @@ public class Type extends Artifact {
   }
 
   public void addOperation(Operation op) {
+    modified();
     operations.put(op.getName(), op);
     if (kind == Kind.PARTIAL) {
       superType.addOperation(op);
@@ -76,6 +122,7 @@ public class Type extends Artifact {
   }
 
   public void addType(Type type) {
+    modified();
     types.add(type);
   }
   
@@ -84,6 +131,9 @@ public class Type extends Artifact {
   }
 
   public Collection<Operation> getOwnAndInterfaceOperations() {
+    if (isFrozen()) {
+      return Collections.unmodifiableList(Arrays.asList(frozenOperations));
+    }
     TreeSet<Operation> set = new TreeSet<Operation>();
     set.addAll(operations.values());
     for (Type t: types) {
@@ -93,6 +143,9 @@ public class Type extends Artifact {
   }
 
   public Collection<Property> getOwnAndInterfaceProperties() {
+    if (isFrozen()) {
+      return Collections.unmodifiableList(Arrays.asList(frozenProperties));
+    }
     TreeSet<Property> set = new TreeSet<Property>();
     set.addAll(properties.values());
     for (Type t: types) {
@@ -107,10 +160,11 @@ public class Type extends Artifact {
   }
   
   public Collection<Type> getTypes() {
-    return types;
+    return typesView;
   }
   
   public void addProperty(Property property) {
+    modified();
     properties.put(property.getName(), property);
     if (kind == Kind.PARTIAL) {
       superType.addProperty(property);
@@ -123,8 +177,11 @@ public class Type extends Artifact {
     return properties.values();
   }
 
+  /** Returns the members referring to this type, sorted by their current names. */
   public Collection<Member> getReferences() {
-    return referencedBy;
+    List<Member> result = new ArrayList<Member>(referencedBy);
+    Collections.sort(result);
+    return result;
   }
   
   public void addConstructor(Operation constructor) {
@@ -164,12 +221,14 @@ public class Type extends Artifact {
 
   public void removeOperation(Operation operation) {
     assert operation.owner == this;
+    modified();
     operations.remove(operation.getName());
     operation.owner = null;
   }
 
   public void removeProperty(Property property) {
     assert property.owner == this;
+    modified();
     properties.remove(property.getName());
     property.owner = null;
 
@@ -194,6 +253,31 @@ public class Type extends Artifact {
     }
   }
 
+  /**
+   * Computes the flattened operation and property views. Called by Model.freeze()
+   * after the mixins of this type have been frozen where possible.
+   */
+  void freeze(int version) {
+    frozenVersion = -1;
+    Collection<Operation> ops = getOwnAndInterfaceOperations();
+    Collection<Property> props = getOwnAndInterfaceProperties();
+    frozenOperations = ops.toArray(new Operation[ops.size()]);
+    frozenProperties = props.toArray(new Property[props.size()]);
+    frozenVersion = version;
+  }
+
+  private boolean isFrozen() {
+    Model model = owner == null ? null : owner.model;
+    return frozenOperations != null && model != null && model.version == frozenVersion;
+  }
+
+  /** Invalidates the frozen member views of the model containing this type. */
+  void modified() {
+    if (owner != null && owner.model != null) {
+      owner.model.version++;
+    }
+  }
+
   public Collection<Library> getExtendedBy() {
     // TODO Auto-generated method stub
     return null;
@@ -204,4 +288,16 @@ public class Type extends Artifact {
     return getLibrary() == null ? name : (name + " (" + getLibrary().getName() + ")");
   }
 
+  @Override
+  String getCollationPart(int index) {
+    switch (index) {
+    case 0:
+      return name;
+    case 1:
+      return getLibrary() == null ? null : getLibrary().getName();
+    default:
+      return null;
+    }
+  }
+
 }
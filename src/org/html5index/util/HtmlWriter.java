@@ -9,34 +9,48 @@ import java.io.Writer;
 import java.util.ArrayList;
 
 public class HtmlWriter {
+  /** Entities for the ASCII characters that need escaping; null for all others. */
+  private static final String[] ENTITIES = new String[128];
+  static {
+    ENTITIES['<'] = "&lt;";
+    ENTITIES['>'] = "&gt;";
+    ENTITIES['\''] = "&apos;";
+    ENTITIES['\"'] = "&quot;";
+    ENTITIES['&'] = "&amp;";
+  }
+
   private Writer writer;
-  
+  /** Scratch space for numeric character references, "&#65535;" at most. */
+  private final char[] charRef = new char[8];
+
+  /** Returns the index of the first character in s at or after start that needs escaping, or -1. */
+  private static int indexOfEscapable(String s, int start) {
+    int len = s.length();
+    for (int i = start; i < len; i++) {
+      char c = s.charAt(i);
+      if (c > 127 || ENTITIES[c] != null) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /** Returns s if it does not need escaping. */
   public static String htmlEscape(String s) {
-    StringBuilder sb = new StringBuilder();
-    for (int i = 0; i < s.length(); i++) {
+    int i = indexOfEscapable(s, 0);
+    if (i == -1) {
+      return s;
+    }
+    StringBuilder sb = new StringBuilder(s.length() + 16);
+    sb.append(s, 0, i);
+    for (; i < s.length(); i++) {
       char c = s.charAt(i);
-      switch(c) {
-      case '<': 
-        sb.append("&lt;");
-        break;
-      case '>': 
-        sb.append("&gt;");
-        break;
-      case '\'': 
-        sb.append("&apos;");
-        break;
-      case '\"': 
-        sb.append("&quot;");
-        break;
-      case '&': 
-        sb.append("&amp;");
-        break;
-      default:
-        if (c > 127) {
-          sb.append("&#" + ((int) c) + ";");
-        } else {
-          sb.append(c);
-        }
+      if (c > 127) {
+        sb.append("&#").append((int) c).append(';');
+      } else if (ENTITIES[c] != null) {
+        sb.append(ENTITIES[c]);
+      } else {
+        sb.append(c);
       }
     }
     return sb.toString();
@@ -62,11 +76,42 @@ public class HtmlWriter {
     return this;
   }
   
+  /** Writes s escaped; runs of characters that don't need escaping are written as they are. */
   public HtmlWriter text(String s) throws IOException {
-    writer.write(htmlEscape(s));
+    int start = 0;
+    int i;
+    while ((i = indexOfEscapable(s, start)) != -1) {
+      if (i > start) {
+        writer.write(s, start, i - start);
+      }
+      char c = s.charAt(i);
+      if (c > 127) {
+        writeCharRef(c);
+      } else {
+        writer.write(ENTITIES[c]);
+      }
+      start = i + 1;
+    }
+    int len = s.length();
+    if (start < len) {
+      writer.write(s, start, len - start);
+    }
     return this;
   }
 
+  private void writeCharRef(char c) throws IOException {
+    int pos = charRef.length;
+    charRef[--pos] = ';';
+    int value = c;
+    do {
+      charRef[--pos] = (char) ('0' + value % 10);
+      value /= 10;
+    } while (value != 0);
+    charRef[--pos] = '#';
+    charRef[--pos] = '&';
+    writer.write(charRef, pos, charRef.length - pos);
+  }
+
 
   public void close() throws IOException {
     writer.close();
@@ -1,14 +1,26 @@
 package org.html5index.util;
 
 import org.html5index.docscan.Sources;
+import org.html5index.generator.JsonWriter;
 import org.html5index.idl.IdlParser;
-import org.html5index.model.Artifact;
 import org.html5index.model.DocumentationProvider;
+import org.html5index.model.DocumentationProvider.Category;
 import org.html5index.model.Library;
 import org.html5index.model.Model;
+import org.html5index.model.StaticDocumentationProvider;
 
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.CharBuffer;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
@@ -20,28 +32,48 @@ public class IdlCompletenessChecker {
 
   public static final String ONLY_ONE = "OnlyOne";
 
+  /**
+   * Arguments: the JAR file containing the IDL files, optionally followed by -json and
+   * the file to write the full diff report to.
+   */
   public static void main(String[] args) throws IOException {
     if (args.length == 0) {
       System.err.println("The first argument must be a JAR file containing IDL files.");
       System.exit(-1);
     }
-    new IdlCompletenessChecker().exec(args[0]);
+    String jsonFile = null;
+    for (int i = 1; i < args.length; i++) {
+      if (args[i].equals("-json") && i + 1 < args.length) {
+        jsonFile = args[++i];
+      } else {
+        System.err.println("Usage: IdlCompletenessChecker <jar file> [-json <report file>]");
+        System.exit(-1);
+      }
+    }
+    new IdlCompletenessChecker().exec(args[0], jsonFile);
   }
 
-  private void exec(String jarFile) throws IOException {
+  private void exec(String jarFile, String jsonFile) throws IOException {
     Model normalModel = readModel();
     Model blinkModel = readBlinkModel(jarFile);
-    checkNormalAgainstBlink(normalModel, blinkModel);
+    ModelDiff diff = checkNormalAgainstBlink(normalModel, blinkModel);
+    if (jsonFile != null) {
+      JsonWriter out = new JsonWriter(new FileOutputStream(jsonFile).getChannel(), false);
+      try {
+        diff.writeJson(out);
+      } finally {
+        out.close();
+      }
+    }
   }
 
-  private void checkNormalAgainstBlink(Model normalModel, Model blinkModel) {
-    Set<String> allTypes = normalModel.getAllTypeNames();
-    Set<String> blinkTypes = blinkModel.getAllTypeNames();
-    Set<String> difference = new HashSet<String>(blinkTypes);
-    difference.removeAll(allTypes);
-    for (String type : difference) {
+  private ModelDiff checkNormalAgainstBlink(Model normalModel, Model blinkModel) {
+    ModelDiff diff = new ModelDiff(blinkModel, normalModel);
+    for (String type : diff.getMissingTypes()) {
       System.out.format("Type %s is in Blink but not in any of the source specs.\n", type);
     }
+    System.out.println(diff.getSummary());
+    return diff;
   }
 
   Model readModel() throws IOException {
@@ -55,64 +87,81 @@ public class IdlCompletenessChecker {
   }
 
   Model readBlinkModel(String jarFile) throws IOException {
+    return readBlinkModel(jarFile, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Reads and tokenizes the IDL entries of the jar on a pool of the given size. The
+   * entries are parsed into the model one by one in the order of the jar, so the model
+   * does not depend on the parallelism.
+   */
+  Model readBlinkModel(String jarFile, int parallelism) throws IOException {
     Model model = new Model();
     Library lib = new Library(ONLY_ONE, false);
-    lib.setDocumentationProvider(new DocumentationProvider() {
-      @Override
-      public String getTitle() {
-        return ONLY_ONE;
-      }
-
-      @Override
-      public Category getCategory() {
-        return Category.MULTIMEDIA;
-      }
-
-      @Override
-      public String getSummary(Artifact artifact) {
-        return ONLY_ONE;
-      }
-
-      @Override
-      public String getLink(Artifact artifact) {
-        return ONLY_ONE;
-      }
-
-      @Override
-      public Iterable<String[]> getUrls() {
-        return Collections.EMPTY_LIST;
+    lib.setDocumentationProvider(new StaticDocumentationProvider(ONLY_ONE, Category.MULTIMEDIA));
+    model.addLibrary(lib);
+    final ZipFile jar = new ZipFile(jarFile);
+    ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, parallelism));
+    try {
+      List<String> names = new ArrayList<String>();
+      List<Future<Tokenizer.Recording>> tokens = new ArrayList<Future<Tokenizer.Recording>>();
+      Enumeration<? extends ZipEntry> entries = jar.entries();
+      while (entries.hasMoreElements()) {
+        final ZipEntry jarEntry = entries.nextElement();
+        if (!jarEntry.getName().endsWith(".idl")) {
+          continue;
+        }
+        names.add(jarEntry.getName());
+        tokens.add(executor.submit(new Callable<Tokenizer.Recording>() {
+          @Override
+          public Tokenizer.Recording call() throws IOException {
+            InputStream is = jar.getInputStream(jarEntry);
+            try {
+              CharBuffer chars = readUtf8(is, jarEntry.getSize());
+              return IdlParser.tokenize(chars.array(), 0, chars.limit());
+            } finally {
+              is.close();
+            }
+          }
+        }));
       }
-
-      @Override
-      public Map<String, String> getTutorials() {
-        return Collections.EMPTY_MAP;
+      for (int i = 0; i < names.size(); i++) {
+        try {
+          new IdlParser(lib, new Tokenizer(tokens.get(i).get())).parse();
+        } catch (ExecutionException e) {
+          Throwable cause = e.getCause();
+          System.err.println("Can't parse " + names.get(i) + " because " + cause + ":" + cause.getMessage());
+        } catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        } catch (Exception e) {
+          System.err.println("Can't parse " + names.get(i) + " because " + e + ":" + e.getMessage());
+        }
       }
+    } finally {
+      executor.shutdownNow();
+      jar.close();
+    }
+    return model;
+  }
 
-      @Override
-      public void addDocumentation(Artifact artifact) {
-
-      }
-
-      @Override
-      public void readDocumentation(Library lib) {
-
+  /**
+   * Reads the UTF-8 stream into an array backed buffer. The size in bytes is used as the
+   * initial capacity if known.
+   */
+  static CharBuffer readUtf8(InputStream is, long size) throws IOException {
+    Reader reader = new InputStreamReader(is, "UTF-8");
+    char[] buf = new char[size > 0 && size < Integer.MAX_VALUE ? (int) size + 1 : 8192];
+    int len = 0;
+    while (true) {
+      if (len == buf.length) {
+        buf = Arrays.copyOf(buf, buf.length * 2);
       }
-    });
-    model.addLibrary(lib);
-    ZipFile jar = new ZipFile(jarFile);
-    Enumeration<? extends ZipEntry> entries = jar.entries();
-    while (entries.hasMoreElements()) {
-      ZipEntry jarEntry = entries.nextElement();
-      if (!jarEntry.getName().endsWith(".idl")) {
-        continue;
-      }
-      String wholeFile = new Scanner(jar.getInputStream(jarEntry)).useDelimiter("\\A").next().replaceAll("[ ]+", " ");
-      try {
-        new IdlParser(lib, wholeFile).parse();
-      } catch (Exception e) {
-        System.err.println("Can't parse " + jarEntry.getName() + " because " + e + ":" + e.getMessage());
+      int count = reader.read(buf, len, buf.length - len);
+      if (count == -1) {
+        break;
       }
+      len += count;
     }
-    return model;
+    return CharBuffer.wrap(buf, 0, len);
   }
 }
@@ -0,0 +1,289 @@
+package org.html5index.util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.html5index.generator.JsonWriter;
+import org.html5index.model.Artifact;
+import org.html5index.model.Library;
+import org.html5index.model.Model;
+import org.html5index.model.Operation;
+import org.html5index.model.Parameter;
+import org.html5index.model.Property;
+import org.html5index.model.Type;
+
+/**
+ * Compares a model against a reference model, e.g. the model read from the specs against
+ * the Blink IDL, by type and member. Both models are indexed by type name first, with the
+ * members of partial types counted for the type they extend, as libraries differ between
+ * models. Comparing is then one lookup per type and member.
+ */
+public class ModelDiff {
+
+  /** The member signatures of all types with the same name in a model. */
+  static class TypeIndex {
+    final TreeMap<String, String> operations = new TreeMap<String, String>();
+    final TreeMap<String, String> properties = new TreeMap<String, String>();
+    final TreeSet<String> constructors = new TreeSet<String>();
+  }
+
+  /** The differences between the members of a type that exists in both models. */
+  public static class TypeDiff {
+    public final List<String> missingOperations = new ArrayList<String>();
+    public final List<String> extraOperations = new ArrayList<String>();
+    public final List<String> missingProperties = new ArrayList<String>();
+    public final List<String> extraProperties = new ArrayList<String>();
+    public final List<String> missingConstructors = new ArrayList<String>();
+    public final List<String> extraConstructors = new ArrayList<String>();
+    /** Members with different signatures: kind, name, reference signature, signature. */
+    public final List<String[]> mismatches = new ArrayList<String[]>();
+
+    public boolean isEmpty() {
+      return missingOperations.isEmpty() && extraOperations.isEmpty() &&
+          missingProperties.isEmpty() && extraProperties.isEmpty() &&
+          missingConstructors.isEmpty() && extraConstructors.isEmpty() && mismatches.isEmpty();
+    }
+  }
+
+  private final TreeSet<String> missingTypes = new TreeSet<String>();
+  private final TreeSet<String> extraTypes = new TreeSet<String>();
+  private final TreeMap<String, TypeDiff> typeDiffs = new TreeMap<String, TypeDiff>();
+  private int comparedTypes;
+  private int referenceMembers;
+  private int matchingMembers;
+  private int missingMembers;
+  private int extraMembers;
+
+  /**
+   * Compares model against reference. Types and members are "missing" if they only exist
+   * in the reference and "extra" if they only exist in model.
+   */
+  public ModelDiff(Model reference, Model model) {
+    Set<String> referenceNames = reference.getAllTypeNames();
+    Set<String> names = model.getAllTypeNames();
+    for (String name: referenceNames) {
+      if (!names.contains(name)) {
+        missingTypes.add(name);
+      }
+    }
+    for (String name: names) {
+      if (!referenceNames.contains(name)) {
+        extraTypes.add(name);
+      }
+    }
+
+    Map<String, TypeIndex> referenceIndex = index(reference);
+    Map<String, TypeIndex> index = index(model);
+    for (Map.Entry<String, TypeIndex> entry: referenceIndex.entrySet()) {
+      TypeIndex expected = entry.getValue();
+      TypeIndex actual = index.get(entry.getKey());
+      if (actual == null) {
+        continue;
+      }
+      comparedTypes++;
+      TypeDiff diff = new TypeDiff();
+      compare("operation", expected.operations, actual.operations,
+          diff.missingOperations, diff.extraOperations, diff.mismatches);
+      compare("property", expected.properties, actual.properties,
+          diff.missingProperties, diff.extraProperties, diff.mismatches);
+      compare(expected.constructors, actual.constructors,
+          diff.missingConstructors, diff.extraConstructors);
+      if (!diff.isEmpty()) {
+        typeDiffs.put(entry.getKey(), diff);
+      }
+    }
+  }
+
+  static Map<String, TypeIndex> index(Model model) {
+    HashMap<String, TypeIndex> result = new HashMap<String, TypeIndex>();
+    for (Library lib: model.getLibraries()) {
+      for (Type type: lib.getTypes()) {
+        if (type.getKind() == Type.Kind.PRIMITIVE) {
+          continue;
+        }
+        TypeIndex typeIndex = result.get(type.getName());
+        if (typeIndex == null) {
+          typeIndex = new TypeIndex();
+          result.put(type.getName(), typeIndex);
+        }
+        for (Operation op: type.getOwnOperations()) {
+          typeIndex.operations.put(op.getName(), getSignature(op));
+        }
+        for (Property property: type.getOwnProperties()) {
+          typeIndex.properties.put(property.getName(), getSignature(property));
+        }
+        for (Operation constructor: type.getConstructors()) {
+          typeIndex.constructors.add(getParameterSignature(constructor));
+        }
+      }
+    }
+    return result;
+  }
+
+  private void compare(String kind, Map<String, String> expected, Map<String, String> actual,
+      List<String> missing, List<String> extra, List<String[]> mismatches) {
+    referenceMembers += expected.size();
+    for (Map.Entry<String, String> entry: expected.entrySet()) {
+      String signature = actual.get(entry.getKey());
+      if (signature == null) {
+        missing.add(entry.getKey());
+      } else if (!signature.equals(entry.getValue())) {
+        mismatches.add(new String[] {kind, entry.getKey(), entry.getValue(), signature});
+      } else {
+        matchingMembers++;
+      }
+    }
+    for (String name: actual.keySet()) {
+      if (!expected.containsKey(name)) {
+        extra.add(name);
+      }
+    }
+    missingMembers += missing.size();
+    extraMembers += extra.size();
+  }
+
+  private void compare(Set<String> expected, Set<String> actual, List<String> missing,
+      List<String> extra) {
+    referenceMembers += expected.size();
+    for (String signature: expected) {
+      if (actual.contains(signature)) {
+        matchingMembers++;
+      } else {
+        missing.add(signature);
+      }
+    }
+    for (String signature: actual) {
+      if (!expected.contains(signature)) {
+        extra.add(signature);
+      }
+    }
+    missingMembers += missing.size();
+    extraMembers += extra.size();
+  }
+
+  static String getTypeName(Type type) {
+    return type == null ? "void" : type.getName();
+  }
+
+  /** Returns e.g. "static void (DOMString, optional long...)". */
+  static String getSignature(Operation op) {
+    return (op.hasModifier(Artifact.STATIC) ? "static " : "") + getTypeName(op.getType()) + " " +
+        getParameterSignature(op);
+  }
+
+  static String getParameterSignature(Operation op) {
+    StringBuilder sb = new StringBuilder("(");
+    for (Parameter p: op.getParameters()) {
+      if (sb.length() > 1) {
+        sb.append(", ");
+      }
+      if (p.hasModifier(Artifact.OPTIONAL)) {
+        sb.append("optional ");
+      }
+      sb.append(getTypeName(p.getType()));
+      if (p.hasModifier(Artifact.VARIADIC)) {
+        sb.append("...");
+      }
+    }
+    return sb.append(')').toString();
+  }
+
+  /** Returns e.g. "static readonly DOMString". */
+  static String getSignature(Property property) {
+    return (property.hasModifier(Artifact.STATIC) ? "static " : "") +
+        (property.hasModifier(Artifact.READ_ONLY) ? "readonly " : "") +
+        getTypeName(property.getType());
+  }
+
+  public Set<String> getMissingTypes() {
+    return missingTypes;
+  }
+
+  public Set<String> getExtraTypes() {
+    return extraTypes;
+  }
+
+  /** Returns the differences of the types in both models that have any, by type name. */
+  public Map<String, TypeDiff> getTypeDiffs() {
+    return typeDiffs;
+  }
+
+  public String getSummary() {
+    return "Types: " + missingTypes.size() + " missing, " + extraTypes.size() + " extra, " +
+        comparedTypes + " compared, " + typeDiffs.size() + " with differences. Members: " +
+        matchingMembers + " of " + referenceMembers + " matching, " + missingMembers +
+        " missing, " + extraMembers + " extra.";
+  }
+
+  /** Writes the diff as a JSON object. */
+  public void writeJson(JsonWriter out) throws IOException {
+    out.openObject();
+    out.openObject("summary");
+    out.writeNumber("missingTypes", missingTypes.size());
+    out.writeNumber("extraTypes", extraTypes.size());
+    out.writeNumber("comparedTypes", comparedTypes);
+    out.writeNumber("typesWithDifferences", typeDiffs.size());
+    out.writeNumber("referenceMembers", referenceMembers);
+    out.writeNumber("matchingMembers", matchingMembers);
+    out.writeNumber("missingMembers", missingMembers);
+    out.writeNumber("extraMembers", extraMembers);
+    int mismatches = 0;
+    for (TypeDiff diff: typeDiffs.values()) {
+      mismatches += diff.mismatches.size();
+    }
+    out.writeNumber("mismatchedMembers", mismatches);
+    out.closeObject();
+
+    writeStrings(out, "missingTypes", missingTypes);
+    writeStrings(out, "extraTypes", extraTypes);
+
+    out.openObject("types");
+    for (Map.Entry<String, TypeDiff> entry: typeDiffs.entrySet()) {
+      TypeDiff diff = entry.getValue();
+      out.openObject(entry.getKey());
+      writeStrings(out, "missingOperations", diff.missingOperations);
+      writeStrings(out, "extraOperations", diff.extraOperations);
+      writeStrings(out, "missingProperties", diff.missingProperties);
+      writeStrings(out, "extraProperties", diff.extraProperties);
+      writeStrings(out, "missingConstructors", diff.missingConstructors);
+      writeStrings(out, "extraConstructors", diff.extraConstructors);
+      if (!diff.mismatches.isEmpty()) {
+        out.openArray("mismatches");
+        for (String[] mismatch: diff.mismatches) {
+          out.openObject();
+          out.writeString("kind", mismatch[0]);
+          out.writeString("name", mismatch[1]);
+          out.writeString("expected", mismatch[2]);
+          out.writeString("actual", mismatch[3]);
+          out.closeObject();
+        }
+        out.closeArray();
+      }
+      out.closeObject();
+    }
+    out.closeObject();
+    out.closeObject();
+  }
+
+  /** Writes the strings as a named array; nothing if there are none. */
+  private static void writeStrings(JsonWriter out, String name, Iterable<String> strings)
+      throws IOException {
+    boolean open = false;
+    for (String s: strings) {
+      if (!open) {
+        out.openArray(name);
+        open = true;
+      }
+      out.writeString(s);
+    }
+    if (open) {
+      out.closeArray();
+    }
+  }
+}
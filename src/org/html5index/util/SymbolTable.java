@@ -0,0 +1,161 @@
+package org.html5index.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Interns identifiers straight from a character buffer, so repeated words don't allocate
+ * a new string each time they are seen. Symbols can be defined with an integer code
+ * (e.g. for keywords); all other symbols have code 0.
+ * <p>
+ * Symbols added by lookup are dropped once there are more than MAX_SYMBOLS of them, so
+ * a long-lived table does not grow without bound; defined symbols are kept.
+ * <p>
+ * Open addressing with linear probing. Not thread safe; use one table per thread.
+ */
+public class SymbolTable {
+  public static final int MAX_SYMBOLS = 8192;
+
+  private final int initialLength;
+  private final Map<String, Integer> defined = new LinkedHashMap<String, Integer>();
+  private String[] symbols;
+  private int[] codes;
+  private int[] hashes;
+  private int size;
+
+  public SymbolTable() {
+    this(256);
+  }
+
+  /**
+   * @param capacity the expected number of symbols
+   */
+  public SymbolTable(int capacity) {
+    int n = 16;
+    while (n < capacity * 2) {
+      n *= 2;
+    }
+    initialLength = n;
+    symbols = new String[n];
+    codes = new int[n];
+    hashes = new int[n];
+  }
+
+  /**
+   * Adds the given symbol with the given code. The string instance is kept, so
+   * comparing an interned symbol against the same literal is an identity check.
+   */
+  public void define(String symbol, int code) {
+    defined.put(symbol, code);
+    int slot = lookup(symbol.toCharArray(), 0, symbol.length());
+    symbols[slot] = symbol;
+    codes[slot] = code;
+  }
+
+  /**
+   * Returns the slot of the symbol for the given characters, adding the symbol if it is new.
+   * The slot is valid until the next call to lookup or define.
+   */
+  public int lookup(char[] buf, int start, int len) {
+    int hash = hash(buf, start, len);
+    int mask = symbols.length - 1;
+    int slot = hash & mask;
+    while (true) {
+      String s = symbols[slot];
+      if (s == null) {
+        break;
+      }
+      if (hashes[slot] == hash && matches(s, buf, start, len)) {
+        return slot;
+      }
+      slot = (slot + 1) & mask;
+    }
+    if (size >= MAX_SYMBOLS + defined.size()) {
+      clear();
+      return lookup(buf, start, len);
+    }
+    if ((size + 1) * 2 > symbols.length) {
+      grow();
+      return lookup(buf, start, len);
+    }
+    symbols[slot] = new String(buf, start, len);
+    hashes[slot] = hash;
+    size++;
+    return slot;
+  }
+
+  public String getSymbol(int slot) {
+    return symbols[slot];
+  }
+
+  public int getCode(int slot) {
+    return codes[slot];
+  }
+
+  /**
+   * Returns the interned string for the given characters.
+   */
+  public String intern(char[] buf, int start, int len) {
+    int slot = lookup(buf, start, len);
+    return symbols[slot];
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /** Drops all symbols added by lookup, keeping the defined ones. */
+  public void clear() {
+    symbols = new String[initialLength];
+    codes = new int[initialLength];
+    hashes = new int[initialLength];
+    size = 0;
+    for (Map.Entry<String, Integer> entry: defined.entrySet()) {
+      String symbol = entry.getKey();
+      int slot = lookup(symbol.toCharArray(), 0, symbol.length());
+      symbols[slot] = symbol;
+      codes[slot] = entry.getValue();
+    }
+  }
+
+  private static boolean matches(String s, char[] buf, int start, int len) {
+    if (s.length() != len) {
+      return false;
+    }
+    for (int i = 0; i < len; i++) {
+      if (s.charAt(i) != buf[start + i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static int hash(char[] buf, int start, int len) {
+    int h = 0;
+    for (int i = start; i < start + len; i++) {
+      h = 31 * h + buf[i];
+    }
+    return h ^ (h >>> 16);
+  }
+
+  private void grow() {
+    String[] oldSymbols = symbols;
+    int[] oldCodes = codes;
+    int[] oldHashes = hashes;
+    int n = oldSymbols.length * 2;
+    symbols = new String[n];
+    codes = new int[n];
+    hashes = new int[n];
+    for (int i = 0; i < oldSymbols.length; i++) {
+      if (oldSymbols[i] != null) {
+        int slot = oldHashes[i] & (n - 1);
+        while (symbols[slot] != null) {
+          slot = (slot + 1) & (n - 1);
+        }
+        symbols[slot] = oldSymbols[i];
+        codes[slot] = oldCodes[i];
+        hashes[slot] = oldHashes[i];
+      }
+    }
+  }
+}
@@ -1,5 +1,12 @@
 package org.html5index.util;
 
+/**
+ * Tokenizer working on a slice of a character array. Words are interned in a SymbolTable
+ * and single character tokens come from a static table, so these only allocate the first
+ * time their text is seen. Numbers and quoted strings are rarely repeated and are not
+ * interned. For words defined with a code in the symbol table, the code is available in
+ * keyword.
+ */
 public class Tokenizer {
 
   public static final int TT_EOF = -1;
@@ -18,23 +25,128 @@ public class Tokenizer {
   public static final int TT_ELLIPSIS = 13;
   public static final int TT_WHITESPACE = 32;
 
+  private static final String[] CHAR_TOKENS = new String[128];
+  static {
+    for (int i = 0; i < CHAR_TOKENS.length; i++) {
+      CHAR_TOKENS[i] = String.valueOf((char) i).intern();
+    }
+  }
+
+  private static final ThreadLocal<SymbolTable> DEFAULT_SYMBOLS = new ThreadLocal<SymbolTable>() {
+    @Override
+    protected SymbolTable initialValue() {
+      return new SymbolTable();
+    }
+  };
+
   int last;
   int pos;
   int len;
   int row;
   int rowStart;
-  String expr;
+  final char[] buf;
+  final SymbolTable symbols;
 
   public String sval;
   public double nval;
   public int ttype;
+  /** The symbol table code of the current word; 0 for other tokens. */
+  public int keyword;
 
   private boolean reportWhitespace;
   private boolean reportComments;
+  /** Set when replaying recorded tokens instead of tokenizing buf. */
+  private Recording replay;
+  private int replayIndex;
+
+  /**
+   * Tokens read ahead by record(), up to and including TT_EOF. Recording and replaying
+   * may happen on different threads, e.g. to tokenize many sources concurrently while
+   * parsing them in order.
+   */
+  public static class Recording {
+    // Per token: ttype, keyword, last, pos, row, rowStart.
+    static final int STRIDE = 6;
+
+    final char[] buf;
+    final int len;
+    int count;
+    int[] state = new int[64 * STRIDE];
+    String[] svals = new String[64];
+    double[] nvals = new double[64];
+
+    Recording(char[] buf, int len) {
+      this.buf = buf;
+      this.len = len;
+    }
+
+    void add(Tokenizer t) {
+      if (count == svals.length) {
+        int[] newState = new int[state.length * 2];
+        System.arraycopy(state, 0, newState, 0, state.length);
+        state = newState;
+        String[] newSvals = new String[count * 2];
+        System.arraycopy(svals, 0, newSvals, 0, count);
+        svals = newSvals;
+        double[] newNvals = new double[count * 2];
+        System.arraycopy(nvals, 0, newNvals, 0, count);
+        nvals = newNvals;
+      }
+      int i = count * STRIDE;
+      state[i] = t.ttype;
+      state[i + 1] = t.keyword;
+      state[i + 2] = t.last;
+      state[i + 3] = t.pos;
+      state[i + 4] = t.row;
+      state[i + 5] = t.rowStart;
+      svals[count] = t.sval;
+      nvals[count] = t.nval;
+      count++;
+    }
+
+    /** Returns the number of recorded tokens, including the final TT_EOF. */
+    public int size() {
+      return count;
+    }
+  }
   
   public Tokenizer(String expression) {
-    this.expr = expression;
-    this.len = expression.length();
+    this(expression.toCharArray(), 0, expression.length(), DEFAULT_SYMBOLS.get());
+  }
+
+  /**
+   * Tokenizes buf[start..end). The symbol table must not be used concurrently.
+   */
+  public Tokenizer(char[] buf, int start, int end, SymbolTable symbols) {
+    this.buf = buf;
+    this.pos = start;
+    this.rowStart = start;
+    this.len = end;
+    this.symbols = symbols;
+  }
+
+  /**
+   * Replays the given recorded tokens; nextToken returns the same tokens, with the
+   * same positions, as the recording tokenizer did.
+   */
+  public Tokenizer(Recording recording) {
+    this.buf = recording.buf;
+    this.len = recording.len;
+    this.symbols = null;
+    this.replay = recording;
+  }
+
+  /**
+   * Reads all remaining tokens, up to and including TT_EOF, and returns them for
+   * replaying with Tokenizer(Recording).
+   */
+  public Recording record() {
+    Recording recording = new Recording(buf, len);
+    do {
+      nextToken();
+      recording.add(this);
+    } while (ttype != TT_EOF);
+    return recording;
   }
   
   public void setReportWhitespace(boolean reportWhitespace) {
@@ -44,8 +156,8 @@ public class Tokenizer {
   private void advance() {
     // whitespace
     last = pos;
-    while (pos < len && expr.charAt(pos) <= ' ') {
-      if (expr.charAt(pos) == '\n') {
+    while (pos < len && buf[pos] <= ' ') {
+      if (buf[pos] == '\n') {
         row++;
         rowStart = pos + 1;
       }
@@ -53,7 +165,7 @@ public class Tokenizer {
     }
     if (last != pos && reportWhitespace) {
       ttype = ' ';
-      sval = expr.substring(last, pos);
+      sval = new String(buf, last, pos - last);
       return;
     }
     
@@ -62,13 +174,13 @@ public class Tokenizer {
       return;
     }
 
-    char c = expr.charAt(pos++);
-    char d = pos < len ? expr.charAt(pos) : 0;
-    sval = "" + c;
+    char c = buf[pos++];
+    char d = pos < len ? buf[pos] : 0;
+    sval = c < CHAR_TOKENS.length ? CHAR_TOKENS[c] : String.valueOf(c);
     ttype = c;
     switch (c) {
     case '.':
-      if (d == '.' && pos + 1 < len && expr.charAt(pos + 1) == '.') {
+      if (d == '.' && pos + 1 < len && buf[pos + 1] == '.') {
         pos += 2;
         ttype = TT_ELLIPSIS;
         sval = "...";
@@ -110,7 +222,7 @@ public class Tokenizer {
       }
       break;
     case '#':
-      while (pos < len && expr.charAt(pos) != '\n') {
+      while (pos < len && buf[pos] != '\n') {
         pos++;
       }
       advance();
@@ -119,7 +231,7 @@ public class Tokenizer {
       if (d == '/') {
         pos++;
         int start = pos;
-        while (pos < len && expr.charAt(pos) != '\n') {
+        while (pos < len && buf[pos] != '\n') {
           pos++;
         }
         pos++;
@@ -127,7 +239,7 @@ public class Tokenizer {
         rowStart = pos;
         if (reportComments) {
           ttype = TT_LINE_COMMENT;
-          sval = expr.substring(start, pos);
+          sval = new String(buf, start, Math.min(pos, len) - start);
         } else {
           advance();
         }
@@ -135,9 +247,9 @@ public class Tokenizer {
       } else if (d == '*') {
         pos++;
         int start = pos;
-        while (pos < len && (expr.charAt(pos-1) != '*' || 
-            expr.charAt(pos) != '/')) {
-          if (expr.charAt(pos) == '\n') {
+        while (pos < len && (buf[pos - 1] != '*' || 
+            buf[pos] != '/')) {
+          if (buf[pos] == '\n') {
             row++;
             rowStart = pos + 1;
           }
@@ -146,7 +258,7 @@ public class Tokenizer {
         pos++;
         if (reportComments) {
           ttype = TT_COMMENT;
-          sval = expr.substring(start, pos - 2);
+          sval = new String(buf, start, pos - 2 - start);
         } else {
           advance();
         }
@@ -166,75 +278,68 @@ public class Tokenizer {
   }
 
   private void parseNumber() {
-    StringBuilder sb = new StringBuilder();
-    sb.append((char) ttype);
-
-    if (ttype == '0' && pos < len && expr.charAt(pos) == 'x') {
+    int start = pos - 1;
+    if (ttype == '0' && pos < len && buf[pos] == 'x') {
       pos++;
-      sb.append('x');
       while (pos < len) {
-        char c = expr.charAt(pos);
+        char c = buf[pos];
         if ((c < '0' || c > '9') && (c < 'a' || c > 'f') && (c < 'A' || c > 'F')) {
           break;
         }
-        sb.append(c);
         pos++;
       }
-      nval = Long.parseLong(sb.substring(2), 16);
+      sval = new String(buf, start, pos - start);
+      nval = Long.parseLong(sval.substring(2), 16);
     } else {
       boolean seenE = false;
       while (pos < len) {
-        char c = expr.charAt(pos);
+        char c = buf[pos];
         if (!seenE && (c == 'e' || c == 'E')) {
           seenE = true;
-          if (pos + 1 < len && expr.charAt(pos + 1) == '-') {
-            sb.append(c);
-            c = expr.charAt(++pos);
+          if (pos + 1 < len && buf[pos + 1] == '-') {
+            pos++;
           }
         } else if (c != '.' && (c < '0' || c > '9')) {
           break;
         }
-        sb.append(c);
         pos++;
       }
+      sval = new String(buf, start, pos - start);
       nval = Double.parseDouble(sval);
     }
-    sval = sb.toString();
     ttype = TT_NUMBER;
-    
   }
 
   private void parseIdentifier() {
-    StringBuilder sb = new StringBuilder();
-    sb.append((char) ttype);
+    int start = pos - 1;
     while (pos < len) {
-      char c = expr.charAt(pos);
+      char c = buf[pos];
       if ((c < 'a' || c > 'z') && (c < 'A' || c > 'Z') && (c < '0' || c > '9') && c != '_') {
         break;
       }
-      sb.append(c);
       pos++;
     }
-    sval = sb.toString();
+    int slot = symbols.lookup(buf, start, pos - start);
+    sval = symbols.getSymbol(slot);
+    keyword = symbols.getCode(slot);
     ttype = TT_WORD;
   }
 
   public void parseQuoted() {
-    StringBuilder sb = new StringBuilder();
-    while (pos < len && expr.charAt(pos) != ttype) {
-      sb.append(expr.charAt(pos));
+    int start = pos;
+    while (pos < len && buf[pos] != ttype) {
       pos++;
     }
+    sval = new String(buf, start, pos - start);
     if (pos == len) {
       ttype = TT_EOF;
     } else {
       pos++;
     }
-    sval = sb.toString();
   }
 
   public String getPositionDescription() {
-    return (row + 1) + ":" + (pos - rowStart) + "; token: '" + sval + "' type: " + ttypeToString(ttype) + " Context: " + expr.substring(rowStart, pos); 
+    return (row + 1) + ":" + (pos - rowStart) + "; token: '" + sval + "' type: " + ttypeToString(ttype) + " Context: " + new String(buf, rowStart, Math.min(pos, len) - rowStart); 
   }
 
   public String ttypeToString(int ttype) {
@@ -256,12 +361,27 @@ public class Tokenizer {
    * Returns the raw, unparsed token value.
    */
   public String getRaw() {
-    return expr.substring(last, pos);
+    return new String(buf, last, Math.min(pos, len) - last);
   }
   
   public int nextToken() {
+    if (replay != null) {
+      // After the end, TT_EOF is repeated like when tokenizing.
+      int index = Math.min(replayIndex++, replay.count - 1);
+      int i = index * Recording.STRIDE;
+      ttype = replay.state[i];
+      keyword = replay.state[i + 1];
+      last = replay.state[i + 2];
+      pos = replay.state[i + 3];
+      row = replay.state[i + 4];
+      rowStart = replay.state[i + 5];
+      sval = replay.svals[index];
+      nval = replay.nvals[index];
+      return ttype;
+    }
     sval = null;
     nval = 0;
+    keyword = 0;
     advance();
     return ttype;
   }